@@ -0,0 +1,96 @@
+package com.example.benchmark;
+
+import com.example.dao.EmailFilter;
+import com.example.dao.UserDAO;
+import com.example.entity.User;
+import com.example.util.HibernateUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Проверка занятости email при регистрации: почти все проверяемые адреса свободны.
+// getUserByEmailUnknown - адрес, которого нет в БД (без фильтра - запрос по индексу, кэш natural id
+// отсутствие не запоминает); getUserByEmailExisting - цена фильтра на пути "найден"
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EmailFilterBenchmark {
+
+    @Param({"false", "true"})
+    public boolean filter;
+
+    @Param({"30000"})
+    public int tableSize;
+
+    final UserDAO userDao = new UserDAO();
+    final AtomicLong sequence = new AtomicLong();
+    EmailFilter emailFilter;
+    String[] emails;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        EmbeddedDatabase.start();
+        List<User> users = new ArrayList<>(tableSize);
+        for (int i = 0; i < tableSize; i++) {
+            users.add(new User("user" + i, "user" + i + "@filter.example.com", 18 + i % 60));
+        }
+        userDao.createUsers(users, 500);
+        emails = users.stream().map(User::getEmail).toArray(String[]::new);
+
+        if (filter) {
+            emailFilter = new EmailFilter(userDao, 0.01, 64 << 20, TimeUnit.HOURS.toMillis(1)).start();
+            while (!emailFilter.isReady()) {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (emailFilter != null) {
+            emailFilter.close();
+        }
+        HibernateUtil.shutdown();
+        EmbeddedDatabase.stop();
+    }
+
+    @Benchmark
+    public Optional<User> getUserByEmailUnknown() {
+        return userDao.getUserByEmail("free" + sequence.incrementAndGet() + "@filter.example.com");
+    }
+
+    @Benchmark
+    public Optional<User> getUserByEmailExisting() {
+        return userDao.getUserByEmail(emails[ThreadLocalRandom.current().nextInt(emails.length)]);
+    }
+
+    @Benchmark
+    public List<User> getUsersByEmailsMostlyUnknown() {
+        List<String> batch = new ArrayList<>(20);
+        for (int i = 0; i < 19; i++) {
+            batch.add("free" + sequence.incrementAndGet() + "@filter.example.com");
+        }
+        batch.add(emails[ThreadLocalRandom.current().nextInt(emails.length)]);
+        return userDao.getUsersByEmails(batch);
+    }
+}
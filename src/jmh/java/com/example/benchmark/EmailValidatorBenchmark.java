@@ -0,0 +1,124 @@
+package com.example.benchmark;
+
+import com.example.EmailValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+// Прежний regex-валидатор против однопроходного EmailValidator, по одному адресу и пачкой.
+// Совпадение результатов проверяет EmailValidatorTest
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EmailValidatorBenchmark {
+
+    // Эталон - паттерн, который был в EmailValidator до однопроходной реализации
+    static final Pattern REFERENCE = Pattern.compile(
+            "^[a-zA-Z0-9_+&*-]+(?:\\.[a-zA-Z0-9_+&*-]+)*@(?:[a-zA-Z0-9-]+\\.)+[a-zA-Z]{2,7}$");
+
+    private static final String ALPHABET = "abcXYZ019_+&*-.@ !#%é\t";
+
+    @Param({"100000"})
+    public int batchSize;
+
+    List<String> batch;
+    String valid = "john.doe+news@mail.example.com";
+    String invalid = "john.doe..news@mail.example.com";
+    String adversarial = "a@" + "a".repeat(5000) + "!";
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(7);
+        batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            // Как при импорте: почти все адреса валидны
+            batch.add(i % 50 == 0 ? mutate(random, "user" + i + "@bench.example.com")
+                    : "user" + i + "@bench.example.com");
+        }
+    }
+
+    private static String mutate(Random random, String email) {
+        StringBuilder sb = new StringBuilder(email);
+        int edits = 1 + random.nextInt(3);
+        for (int i = 0; i < edits; i++) {
+            int at = random.nextInt(sb.length());
+            char c = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+            switch (random.nextInt(3)) {
+                case 0:
+                    sb.setCharAt(at, c);
+                    break;
+                case 1:
+                    sb.insert(at, c);
+                    break;
+                default:
+                    if (sb.length() > 1) {
+                        sb.deleteCharAt(at);
+                    }
+            }
+        }
+        return sb.toString();
+    }
+
+    @Benchmark
+    public boolean regexValid() {
+        return REFERENCE.matcher(valid).matches();
+    }
+
+    @Benchmark
+    public boolean fastValid() {
+        return EmailValidator.isValid(valid);
+    }
+
+    @Benchmark
+    public boolean regexInvalid() {
+        return REFERENCE.matcher(invalid).matches();
+    }
+
+    @Benchmark
+    public boolean fastInvalid() {
+        return EmailValidator.isValid(invalid);
+    }
+
+    @Benchmark
+    public boolean regexAdversarial() {
+        return REFERENCE.matcher(adversarial).matches();
+    }
+
+    @Benchmark
+    public boolean fastAdversarial() {
+        return EmailValidator.isValid(adversarial);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void regexBatch(Blackhole bh) {
+        for (String email : batch) {
+            bh.consume(REFERENCE.matcher(email).matches());
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int[] validateAll() {
+        return EmailValidator.validateAll(batch);
+    }
+}
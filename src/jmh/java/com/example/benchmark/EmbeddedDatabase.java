@@ -0,0 +1,76 @@
+package com.example.benchmark;
+
+import com.example.util.SchemaMigrations;
+import com.example.util.Shards;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Локальный PostgreSQL для бенчмарков. Должен стартовать до первого обращения к HibernateUtil:
+// параметры подключения передаются через системные свойства hibernate.*, схема создается миграциями
+public final class EmbeddedDatabase {
+
+    // Индекс - номер шарда, шард 0 - основная БД
+    private static final List<EmbeddedPostgres> postgres = new ArrayList<>();
+
+    private EmbeddedDatabase() {
+    }
+
+    public static void start() {
+        start(1);
+    }
+
+    // shards > 1: отдельный сервер на каждый шард, URL шардов 1..N - в hibernate.shard.urls
+    public static synchronized void start(int shards) {
+        if (!postgres.isEmpty()) {
+            return;
+        }
+        List<String> shardUrls = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            String url = startServer(shard);
+            if (shard == 0) {
+                System.setProperty("hibernate.connection.url", url);
+                System.setProperty("hibernate.connection.username", "postgres");
+                System.setProperty("hibernate.connection.password", "postgres");
+            } else {
+                shardUrls.add(url);
+            }
+        }
+        if (!shardUrls.isEmpty()) {
+            System.setProperty(Shards.URLS, String.join(",", shardUrls));
+        }
+    }
+
+    private static String startServer(int shard) {
+        EmbeddedPostgres server;
+        try {
+            server = EmbeddedPostgres.builder().start();
+        } catch (IOException e) {
+            stop();
+            throw new UncheckedIOException("Failed to start embedded PostgreSQL", e);
+        }
+        postgres.add(server);
+        String url = server.getJdbcUrl("postgres", "postgres") + "&reWriteBatchedInserts=true";
+        SchemaMigrations.migrate(url, "postgres", "postgres", shard);
+        return url;
+    }
+
+    public static synchronized void stop() {
+        System.clearProperty(Shards.URLS);
+        IOException failure = null;
+        for (EmbeddedPostgres server : postgres) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        postgres.clear();
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+    }
+}
@@ -0,0 +1,488 @@
+package com.example.benchmark;
+
+import com.example.dao.UpdateResult;
+import com.example.dao.UserDAO;
+import com.example.entity.User;
+import com.example.util.HibernateUtil;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Нагрузочный прогон UserDAO смешанной нагрузкой с постоянной интенсивностью (open loop): запросы
+// отправляются по расписанию load.rate в секунду, независимо от того, успели ли ответить предыдущие.
+// Задержка считается от запланированного момента отправки, а не от фактического начала работы:
+// если DAO затормозил и запросы копятся в очереди, ожидание попадает в задержку (поправка на
+// coordinated omission). Время самой операции пишется отдельно (service time).
+//
+// Настройки - системные свойства load.*:
+//   load.rate=200              запросов в секунду
+//   load.durationSec=60        замер, load.warmupSec=10 - прогрев перед ним (в отчет не входит)
+//   load.mix=getUserByEmail=80,createUser=10,updateUser=5,deleteUser=5   доли операций
+//   load.keys=zipfian|uniform  распределение ключей чтения и обновления, load.zipfTheta=0.99
+//   load.users=10000           пользователей перед стартом
+//   load.threads=64            рабочих потоков (обычных: поток на запрос, как у блокирующего клиента)
+//   load.intervalSec=5         шаг временного ряда в отчете
+//   load.shards=1              число embedded-шардов; load.embedded=false - БД из hibernate.cfg.xml и -D
+//   load.seed=42               одинаковый seed - одинаковая последовательность операций и ключей
+//   load.report=target/load-report.txt
+//   load.maxP99Ms              если задан и p99 превышен - код возврата 1 (для CI)
+// Запуск: mvn -Pjmh package exec:exec@load -Dload.args="-Dload.rate=500 -Dload.durationSec=300"
+public final class LoadGenerator {
+
+    enum Operation {
+        GET_BY_EMAIL("getUserByEmail"),
+        CREATE("createUser"),
+        UPDATE("updateUser"),
+        DELETE("deleteUser");
+
+        final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+
+        static Operation of(String label) {
+            for (Operation operation : values()) {
+                if (operation.label.equals(label)) {
+                    return operation;
+                }
+            }
+            throw new IllegalArgumentException("Unknown operation in load.mix: " + label);
+        }
+    }
+
+    // Итог одной операции. MISS - запрос выполнен, но строки нет (например, ее уже удалили)
+    enum Outcome { OK, MISS, ERROR }
+
+    // До часа в микросекундах, 3 значащих цифры
+    private static final long HIGHEST_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    private final UserDAO userDao = new UserDAO();
+    private final long rate;
+    private final long warmupNanos;
+    private final long durationNanos;
+    private final long intervalNanos;
+    private final int users;
+    private final Operation[] mix = new Operation[100];
+    private final KeyChooser keys;
+    private final SplittableRandom random;
+    private final ThreadPoolExecutor workers;
+
+    // Ключ k - пользователь load{k}@load.example.com; id созданных до старта - по индексу
+    private long[] ids;
+    private final AtomicLong nextKey = new AtomicLong();
+    // Созданные во время прогона: их и удаляет deleteUser, чтобы размер таблицы оставался стабильным
+    private final ConcurrentLinkedQueue<Long> created = new ConcurrentLinkedQueue<>();
+
+    private final Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+    private final List<String> timeline = new ArrayList<>();
+    private volatile boolean measuring;
+
+    LoadGenerator() {
+        rate = Long.getLong("load.rate", 200);
+        warmupNanos = TimeUnit.SECONDS.toNanos(Long.getLong("load.warmupSec", 10));
+        durationNanos = TimeUnit.SECONDS.toNanos(Long.getLong("load.durationSec", 60));
+        intervalNanos = TimeUnit.SECONDS.toNanos(Long.getLong("load.intervalSec", 5));
+        users = Integer.getInteger("load.users", 10_000);
+        if (rate < 1 || users < 1) {
+            throw new IllegalArgumentException("load.rate and load.users must be positive");
+        }
+        parseMix(System.getProperty("load.mix", "getUserByEmail=80,createUser=10,updateUser=5,deleteUser=5"));
+        keys = "uniform".equals(System.getProperty("load.keys", "zipfian"))
+                ? new UniformKeys(users)
+                : new ZipfianKeys(users, Double.parseDouble(System.getProperty("load.zipfTheta", "0.99")));
+        random = new SplittableRandom(Long.getLong("load.seed", 42));
+        int threads = Integer.getInteger("load.threads", 64);
+        workers = (ThreadPoolExecutor) Executors.newFixedThreadPool(threads);
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new OperationStats());
+        }
+    }
+
+    // Доли в процентах, в сумме 100: таблица из 100 ячеек, операция выбирается одним случайным индексом
+    private void parseMix(String value) {
+        int filled = 0;
+        for (String part : value.split(",")) {
+            String[] entry = part.trim().split("=");
+            Operation operation = Operation.of(entry[0].trim());
+            int share = Integer.parseInt(entry[1].trim());
+            for (int i = 0; i < share && filled < mix.length; i++) {
+                mix[filled++] = operation;
+            }
+        }
+        if (filled != mix.length) {
+            throw new IllegalArgumentException("load.mix shares must add up to 100: " + value);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean embedded = Boolean.parseBoolean(System.getProperty("load.embedded", "true"));
+        if (embedded) {
+            EmbeddedDatabase.start(Integer.getInteger("load.shards", 1));
+        }
+        int status;
+        try {
+            status = new LoadGenerator().run();
+        } finally {
+            HibernateUtil.shutdown();
+            if (embedded) {
+                EmbeddedDatabase.stop();
+            }
+        }
+        System.exit(status);
+    }
+
+    int run() throws InterruptedException {
+        populate();
+        System.out.printf("Load: %d ops/s, warmup %d s, measure %d s, keys %s%n", rate,
+                TimeUnit.NANOSECONDS.toSeconds(warmupNanos), TimeUnit.NANOSECONDS.toSeconds(durationNanos),
+                keys.describe());
+
+        GcSnapshot gcStart = null;
+        long start = System.nanoTime();
+        long measureStart = start + warmupNanos;
+        long end = measureStart + durationNanos;
+        long nextReport = start + intervalNanos;
+        GcSnapshot lastGc = GcSnapshot.take();
+        long lastReport = start;
+        long period = TimeUnit.SECONDS.toNanos(1) / rate;
+        long remainder = TimeUnit.SECONDS.toNanos(1) % rate;
+
+        for (long i = 0; ; i++) {
+            // Момент i-го запроса по расписанию; остаток деления распределяется, чтобы не копить ошибку
+            long intended = start + i * period + i * remainder / rate;
+            if (intended >= end) {
+                break;
+            }
+            long now = System.nanoTime();
+            while (now < intended) {
+                LockSupport.parkNanos(intended - now);
+                now = System.nanoTime();
+            }
+            if (now >= nextReport || (!measuring && intended >= measureStart)) {
+                lastGc = reportInterval(now - lastReport, lastGc);
+                lastReport = now;
+                nextReport = now + intervalNanos;
+            }
+            if (!measuring && intended >= measureStart) {
+                // Хвост прогрева, записанный после снимка, в отчет не попадает
+                for (OperationStats operationStats : stats.values()) {
+                    operationStats.reset();
+                }
+                gcStart = GcSnapshot.take();
+                measuring = true;
+            }
+            Operation operation = mix[random.nextInt(mix.length)];
+            long key = operation == Operation.CREATE ? nextKey.getAndIncrement() : keys.next(random);
+            workers.execute(() -> execute(operation, key, intended));
+        }
+
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.MINUTES);
+        reportInterval(System.nanoTime() - lastReport, lastGc);
+        return writeReport(GcSnapshot.take().minus(gcStart));
+    }
+
+    private void populate() {
+        List<User> batch = new ArrayList<>(users);
+        for (int k = 0; k < users; k++) {
+            batch.add(new User("load" + k, email(k), 18 + k % 60));
+        }
+        if (userDao.createUsers(batch).hasFailures()) {
+            throw new IllegalStateException("Failed to populate " + users + " users");
+        }
+        ids = batch.stream().mapToLong(User::getId).toArray();
+        nextKey.set(users);
+    }
+
+    private static String email(long key) {
+        return "load" + key + "@load.example.com";
+    }
+
+    private void execute(Operation operation, long key, long intended) {
+        long started = System.nanoTime();
+        Outcome outcome;
+        try {
+            outcome = switch (operation) {
+                case GET_BY_EMAIL -> userDao.getUserByEmail(email(key)).isPresent() ? Outcome.OK : Outcome.MISS;
+                case CREATE -> create(key);
+                case UPDATE -> update(ids[(int) key], (int) (intended & 0xffff));
+                case DELETE -> delete();
+            };
+        } catch (RuntimeException e) {
+            outcome = Outcome.ERROR;
+        }
+        long finished = System.nanoTime();
+        stats.get(operation).record(outcome, finished - intended, finished - started);
+    }
+
+    private Outcome create(long key) {
+        User user = new User("load" + key, email(key), 30);
+        Optional<Long> id = userDao.createUser(user);
+        if (id.isEmpty()) {
+            return Outcome.ERROR;
+        }
+        created.add(id.get());
+        return Outcome.OK;
+    }
+
+    private Outcome update(long id, int salt) {
+        UpdateResult result = userDao.updateUserFields(id, "load-" + salt, null, 18 + salt % 60, null);
+        return result == UpdateResult.UPDATED ? Outcome.OK
+                : result == UpdateResult.NOT_FOUND ? Outcome.MISS
+                : Outcome.ERROR;
+    }
+
+    private Outcome delete() {
+        Long id = created.poll();
+        if (id == null) {
+            return Outcome.MISS;
+        }
+        return userDao.deleteUser(id) ? Outcome.OK : Outcome.ERROR;
+    }
+
+    // Строка временного ряда: интенсивность, ошибки, задержки интервала (с поправкой), очередь, heap и GC
+    private GcSnapshot reportInterval(long elapsedNanos, GcSnapshot previousGc) {
+        Histogram interval = null;
+        long errors = 0;
+        for (OperationStats operationStats : stats.values()) {
+            Histogram histogram = operationStats.interval();
+            if (interval == null) {
+                interval = histogram;
+            } else {
+                interval.add(histogram);
+            }
+            errors += operationStats.intervalErrors.sumThenReset();
+        }
+        GcSnapshot gc = GcSnapshot.take();
+        GcSnapshot delta = gc.minus(previousGc);
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        String line = String.format("%-8s %9.1f %7d %9.2f %9.2f %9.2f %7d %8d %6d %7d",
+                measuring ? "measure" : "warmup",
+                interval.getTotalCount() * 1e9 / Math.max(1, elapsedNanos), errors,
+                interval.getValueAtPercentile(50) / 1000.0, interval.getValueAtPercentile(99) / 1000.0,
+                interval.getMaxValue() / 1000.0, workers.getQueue().size(),
+                heap.getUsed() >> 20, delta.count, delta.timeMillis);
+        timeline.add(line);
+        System.out.println(line);
+        return gc;
+    }
+
+    private int writeReport(GcSnapshot gc) {
+        Path path = Path.of(System.getProperty("load.report", "target/load-report.txt"));
+        Histogram total = new Histogram(HIGHEST_MICROS, 3);
+        long errors = 0;
+        long count = 0;
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            try (PrintStream out = new PrintStream(Files.newOutputStream(path), false, "UTF-8")) {
+                out.printf("UserDAO load report, %s%n", LocalDateTime.now());
+                out.printf("rate %d ops/s, measured %d s after %d s warmup, %d users, keys %s, threads %d, shards %d%n%n",
+                        rate, TimeUnit.NANOSECONDS.toSeconds(durationNanos), TimeUnit.NANOSECONDS.toSeconds(warmupNanos),
+                        users, keys.describe(), workers.getMaximumPoolSize(), HibernateUtil.getShardCount());
+
+                out.println("Latency from intended start (corrected for coordinated omission), ms; service = without queueing");
+                out.printf("%-15s %9s %8s %7s %8s %8s %8s %8s %8s %8s %12s%n", "operation", "count", "ops/s",
+                        "errors", "misses", "p50", "p90", "p99", "p99.9", "max", "service p99");
+                double seconds = durationNanos / 1e9;
+                for (Map.Entry<Operation, OperationStats> entry : stats.entrySet()) {
+                    OperationStats operationStats = entry.getValue();
+                    Histogram response = operationStats.total;
+                    out.printf("%-15s %9d %8.1f %7d %8d %8.2f %8.2f %8.2f %8.2f %8.2f %12.2f%n", entry.getKey().label,
+                            response.getTotalCount(), response.getTotalCount() / seconds,
+                            operationStats.errors.sum(), operationStats.misses.sum(),
+                            response.getValueAtPercentile(50) / 1000.0, response.getValueAtPercentile(90) / 1000.0,
+                            response.getValueAtPercentile(99) / 1000.0, response.getValueAtPercentile(99.9) / 1000.0,
+                            response.getMaxValue() / 1000.0,
+                            operationStats.serviceTotal.getValueAtPercentile(99) / 1000.0);
+                    total.add(response);
+                    errors += operationStats.errors.sum();
+                    count += response.getTotalCount();
+                }
+                // Завершенные операции, включая дослужившую после конца замера очередь
+                out.printf("%nall: %d ops completed, %.1f ops/s (target %d), error rate %.4f%%%n", count, count / seconds, rate,
+                        count == 0 ? 0 : errors * 100.0 / count);
+                out.printf("GC during measurement: %d collections, %d ms%n%n", gc.count, gc.timeMillis);
+
+                out.printf("%-8s %9s %7s %9s %9s %9s %7s %8s %6s %7s%n", "phase", "ops/s", "errors", "p50 ms",
+                        "p99 ms", "max ms", "queue", "heap MB", "gc", "gc ms");
+                timeline.forEach(out::println);
+
+                out.println();
+                out.println("Corrected latency distribution, all operations (ms):");
+                total.outputPercentileDistribution(out, 1000.0);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write " + path, e);
+        }
+
+        double p99Millis = total.getValueAtPercentile(99) / 1000.0;
+        System.out.printf("Report: %s, p99 %.2f ms, error rate %.4f%%%n", path.toAbsolutePath(), p99Millis,
+                count == 0 ? 0 : errors * 100.0 / count);
+        String maxP99 = System.getProperty("load.maxP99Ms");
+        if (maxP99 != null && p99Millis > Double.parseDouble(maxP99)) {
+            System.out.printf("p99 %.2f ms exceeds load.maxP99Ms = %s%n", p99Millis, maxP99);
+            return 1;
+        }
+        return 0;
+    }
+
+    // Recorder пишется из рабочих потоков без блокировок, интервальные снимки забирает поток расписания
+    private final class OperationStats {
+        final Recorder response = new Recorder(HIGHEST_MICROS, 3);
+        final Recorder service = new Recorder(HIGHEST_MICROS, 3);
+        final Histogram total = new Histogram(HIGHEST_MICROS, 3);
+        final Histogram serviceTotal = new Histogram(HIGHEST_MICROS, 3);
+        final LongAdder errors = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder intervalErrors = new LongAdder();
+
+        void record(Outcome outcome, long responseNanos, long serviceNanos) {
+            response.recordValue(Math.min(HIGHEST_MICROS, TimeUnit.NANOSECONDS.toMicros(responseNanos)));
+            service.recordValue(Math.min(HIGHEST_MICROS, TimeUnit.NANOSECONDS.toMicros(serviceNanos)));
+            if (outcome == Outcome.ERROR) {
+                intervalErrors.increment();
+                if (measuring) {
+                    errors.increment();
+                }
+            } else if (outcome == Outcome.MISS && measuring) {
+                misses.increment();
+            }
+        }
+
+        // Снимок интервала; в итог идет только после прогрева
+        Histogram interval() {
+            Histogram histogram = response.getIntervalHistogram();
+            Histogram serviceInterval = service.getIntervalHistogram();
+            if (measuring) {
+                total.add(histogram);
+                serviceTotal.add(serviceInterval);
+            }
+            return histogram;
+        }
+
+        void reset() {
+            response.reset();
+            service.reset();
+        }
+    }
+
+    private record GcSnapshot(long count, long timeMillis) {
+
+        static GcSnapshot take() {
+            long count = 0;
+            long time = 0;
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                count += Math.max(0, collector.getCollectionCount());
+                time += Math.max(0, collector.getCollectionTime());
+            }
+            return new GcSnapshot(count, time);
+        }
+
+        GcSnapshot minus(GcSnapshot earlier) {
+            return new GcSnapshot(count - earlier.count, timeMillis - earlier.timeMillis);
+        }
+    }
+
+    interface KeyChooser {
+        long next(SplittableRandom random);
+
+        String describe();
+    }
+
+    record UniformKeys(int count) implements KeyChooser {
+        @Override
+        public long next(SplittableRandom random) {
+            return random.nextInt(count);
+        }
+
+        @Override
+        public String describe() {
+            return "uniform over " + count;
+        }
+    }
+
+    // Zipfian по алгоритму YCSB (Gray et al., "Quickly generating billion-record synthetic databases"):
+    // ранг 0 - самый частый. Ранги перемешиваются хешем, чтобы горячие ключи не шли подряд по id
+    // и не садились на одни и те же страницы индекса
+    static final class ZipfianKeys implements KeyChooser {
+        private final int count;
+        private final double theta;
+        private final double zetaN;
+        private final double alpha;
+        private final double eta;
+
+        ZipfianKeys(int count, double theta) {
+            if (theta <= 0 || theta >= 1) {
+                throw new IllegalArgumentException("load.zipfTheta must be in (0, 1): " + theta);
+            }
+            this.count = count;
+            this.theta = theta;
+            this.zetaN = zeta(count, theta);
+            this.alpha = 1 / (1 - theta);
+            this.eta = (1 - Math.pow(2.0 / count, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+        }
+
+        private static double zeta(long n, double theta) {
+            double sum = 0;
+            for (long i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+
+        @Override
+        public long next(SplittableRandom random) {
+            double u = random.nextDouble();
+            double uz = u * zetaN;
+            long rank;
+            if (uz < 1) {
+                rank = 0;
+            } else if (uz < 1 + Math.pow(0.5, theta)) {
+                rank = 1;
+            } else {
+                rank = Math.min(count - 1, (long) (count * Math.pow(eta * u - eta + 1, alpha)));
+            }
+            return Math.floorMod(scramble(rank), count);
+        }
+
+        // Финализатор murmur3, как в Shards
+        private static long scramble(long value) {
+            value ^= value >>> 33;
+            value *= 0xff51afd7ed558ccdL;
+            value ^= value >>> 33;
+            value *= 0xc4ceb9fe1a85ec53L;
+            value ^= value >>> 33;
+            return value;
+        }
+
+        @Override
+        public String describe() {
+            return "zipfian(theta " + theta + ") over " + count;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.benchmark;
+
+import com.example.dao.UserDAO;
+import com.example.dao.UserSearchCriteria;
+import com.example.dao.UserView;
+import com.example.entity.User;
+import com.example.util.HibernateUtil;
+import org.hibernate.Session;
+import org.hibernate.stat.Statistics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Цена разбора и планирования запроса: в Hibernate (кэш планов HQL) и в PostgreSQL (prepared statements pgjdbc).
+// namedQuery - текст запроса всегда один: план HQL из кэша, на сервере - готовый statement.
+// adHocQuery - тот же запрос со значением в тексте: каждый вызов разбирается заново и там, и там.
+// criteriaSearch - searchUsers с разным возрастом: при literalHandling=auto число попадает в текст запроса.
+// prepareThreshold=0 - pgjdbc не готовит запросы на сервере вовсе, 5 - как в hibernate.cfg.xml, 1 - с первого выполнения
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryPlanBenchmark {
+
+    private static final String PREPARE_THRESHOLD = "hibernate.hikari.dataSource.prepareThreshold";
+    private static final String LITERAL_HANDLING = "hibernate.criteria.literal_handling_mode";
+
+    @Param({"0", "5", "1"})
+    public String prepareThreshold;
+
+    @Param({"auto", "bind"})
+    public String literalHandling;
+
+    @Param({"10000"})
+    public int tableSize;
+
+    final UserDAO userDao = new UserDAO();
+    long[] ids;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // До первого обращения к HibernateUtil: системные hibernate.* переопределяют hibernate.cfg.xml
+        System.setProperty(PREPARE_THRESHOLD, prepareThreshold);
+        System.setProperty(LITERAL_HANDLING, literalHandling);
+        EmbeddedDatabase.start();
+
+        List<User> users = new ArrayList<>(tableSize);
+        for (int i = 0; i < tableSize; i++) {
+            users.add(new User("user" + i, "user" + i + "@plan.example.com", 18 + i % 60));
+        }
+        userDao.createUsers(users, 500);
+        ids = users.stream().mapToLong(User::getId).toArray();
+        HibernateUtil.getSessionFactory().getStatistics().clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Statistics statistics = HibernateUtil.getSessionFactory().getStatistics();
+        System.out.printf("%nquery plan cache: hits = %d, misses = %d%n",
+                statistics.getQueryPlanCacheHitCount(), statistics.getQueryPlanCacheMissCount());
+        HibernateUtil.shutdown();
+        EmbeddedDatabase.stop();
+        System.clearProperty(PREPARE_THRESHOLD);
+        System.clearProperty(LITERAL_HANDLING);
+    }
+
+    long randomId() {
+        return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+    }
+
+    @Benchmark
+    public UserView namedQuery() {
+        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+            return session.createNamedQuery("UserView.byId", UserView.class)
+                    .setParameter("id", randomId())
+                    .uniqueResult();
+        }
+    }
+
+    @Benchmark
+    public UserView adHocQuery() {
+        try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+            return session.createQuery("SELECT new com.example.dao.UserView(u.id, u.name, u.email, u.age, u.createdAt) "
+                            + "FROM User u WHERE u.id = " + randomId(), UserView.class)
+                    .uniqueResult();
+        }
+    }
+
+    @Benchmark
+    public List<User> criteriaSearch() {
+        int minAge = 18 + ThreadLocalRandom.current().nextInt(60);
+        UserSearchCriteria criteria = new UserSearchCriteria();
+        criteria.setMinAge(minAge);
+        criteria.setMaxAge(minAge);
+        criteria.setLimit(10);
+        return userDao.searchUsers(criteria);
+    }
+}
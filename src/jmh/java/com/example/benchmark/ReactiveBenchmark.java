@@ -0,0 +1,192 @@
+package com.example.benchmark;
+
+import com.example.dao.ReactiveUserRepository;
+import com.example.dao.UserDAO;
+import com.example.entity.User;
+import com.example.util.HibernateUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Нагрузка из inFlight одновременных запросов: UserDAO - пул из inFlight обычных потоков (поток на запрос),
+// все они делят пул Hikari (10 соединений); ReactiveUserRepository - inFlight future на 2 общих соединениях.
+// Виртуальные потоки без ConcurrencyLimiter здесь не годятся: ожидая соединение внутри synchronized
+// (генератор id Hibernate), они занимают единственный поток-носитель и пул упирается в connectionTimeout
+// Время - на всю пачку. getUserById у UserDAO обычно обслуживает кэш второго уровня, у реактивного
+// репозитория кэша нет; getUsersPage и createUser идут в БД у обоих
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReactiveBenchmark {
+
+    @Param({"64"})
+    public int inFlight;
+
+    @Param({"20000"})
+    public int tableSize;
+
+    final UserDAO userDao = new UserDAO();
+    final AtomicLong sequence = new AtomicLong();
+    ReactiveUserRepository repository;
+    ExecutorService executor;
+    long[] ids;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        EmbeddedDatabase.start();
+        List<User> users = new ArrayList<>(tableSize);
+        for (int i = 0; i < tableSize; i++) {
+            users.add(new User("user" + i, "user" + i + "@reactive.example.com", 18 + i % 60));
+        }
+        userDao.createUsers(users, 500);
+        ids = users.stream().mapToLong(User::getId).toArray();
+        repository = new ReactiveUserRepository(2);
+        executor = Executors.newFixedThreadPool(inFlight);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+        repository.close();
+        HibernateUtil.shutdown();
+        EmbeddedDatabase.stop();
+    }
+
+    long randomId() {
+        return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+    }
+
+    User newUser() {
+        long n = sequence.incrementAndGet();
+        return new User("new" + n, "new" + n + "@reactive.example.com", 30);
+    }
+
+    <T> int blocking(Supplier<T> work) throws Exception {
+        List<Future<T>> futures = new ArrayList<>(inFlight);
+        for (int i = 0; i < inFlight; i++) {
+            futures.add(executor.submit(work::get));
+        }
+        int done = 0;
+        for (Future<T> future : futures) {
+            if (future.get() != null) {
+                done++;
+            }
+        }
+        return done;
+    }
+
+    <T> int reactive(Supplier<CompletableFuture<T>> work) {
+        List<CompletableFuture<T>> futures = new ArrayList<>(inFlight);
+        for (int i = 0; i < inFlight; i++) {
+            futures.add(work.get());
+        }
+        int done = 0;
+        for (CompletableFuture<T> future : futures) {
+            if (future.join() != null) {
+                done++;
+            }
+        }
+        return done;
+    }
+
+    // Подписчик с ограниченным спросом: по 256 строк за запрос
+    long countStream() throws InterruptedException {
+        AtomicLong count = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(1);
+        repository.streamAllUsers().subscribe(new Flow.Subscriber<User>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(256);
+            }
+
+            @Override
+            public void onNext(User user) {
+                if (count.incrementAndGet() % 256 == 0) {
+                    subscription.request(256);
+                }
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                count.set(-1);
+                done.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                done.countDown();
+            }
+        });
+        done.await();
+        return count.get();
+    }
+
+    @Benchmark
+    public int getUserByIdDao() throws Exception {
+        return blocking(() -> userDao.getUserById(randomId()));
+    }
+
+    @Benchmark
+    public int getUserByIdReactive() {
+        return reactive(() -> repository.getUserById(randomId()));
+    }
+
+    @Benchmark
+    public int getUsersPageDao() throws Exception {
+        return blocking(() -> userDao.getUsersPage(randomId(), 20));
+    }
+
+    @Benchmark
+    public int getUsersPageReactive() {
+        return reactive(() -> repository.getUsersPage(randomId(), 20));
+    }
+
+    @Benchmark
+    public int createUserDao() throws Exception {
+        return blocking(() -> userDao.createUser(newUser()).orElse(null));
+    }
+
+    @Benchmark
+    public int createUserReactive() {
+        return reactive(() -> repository.createUser(newUser()).thenApply(id -> id.orElse(null)));
+    }
+
+    @Benchmark
+    public long streamAllDao() {
+        return userDao.forEachUser(user -> { });
+    }
+
+    @Benchmark
+    public long streamAllReactive() throws InterruptedException {
+        return countStream();
+    }
+}
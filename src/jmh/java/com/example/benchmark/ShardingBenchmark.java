@@ -0,0 +1,97 @@
+package com.example.benchmark;
+
+import com.example.dao.UserDAO;
+import com.example.dao.UserSearchCriteria;
+import com.example.entity.User;
+import com.example.util.HibernateUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Один шард против трех (каждый - отдельный embedded PostgreSQL). Точечные чтения по id и email
+// идут на один шард и не должны дорожать; count, страница и поиск опрашивают шарды параллельно
+// и сводят результат в памяти
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShardingBenchmark {
+
+    @Param({"1", "3"})
+    public int shards;
+
+    @Param({"30000"})
+    public int tableSize;
+
+    final UserDAO userDao = new UserDAO();
+    long[] ids;
+    String[] emails;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        EmbeddedDatabase.start(shards);
+
+        List<User> users = new ArrayList<>(tableSize);
+        for (int i = 0; i < tableSize; i++) {
+            users.add(new User("user" + i, "user" + i + "@shard.example.com", 18 + i % 60));
+        }
+        userDao.createUsers(users, 500);
+        ids = users.stream().mapToLong(User::getId).toArray();
+        emails = users.stream().map(User::getEmail).toArray(String[]::new);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        HibernateUtil.shutdown();
+        EmbeddedDatabase.stop();
+    }
+
+    @Benchmark
+    public Optional<User> getUserById() {
+        return userDao.getUserById(ids[ThreadLocalRandom.current().nextInt(ids.length)]);
+    }
+
+    @Benchmark
+    public Optional<User> getUserByEmail() {
+        return userDao.getUserByEmail(emails[ThreadLocalRandom.current().nextInt(emails.length)]);
+    }
+
+    @Benchmark
+    public long countUsers() {
+        return userDao.countUsers();
+    }
+
+    @Benchmark
+    public List<User> getUsersPage() {
+        return userDao.getUsersPage(ids[ThreadLocalRandom.current().nextInt(ids.length)], 50);
+    }
+
+    @Benchmark
+    public List<User> searchUsers() {
+        int minAge = 18 + ThreadLocalRandom.current().nextInt(60);
+        UserSearchCriteria criteria = new UserSearchCriteria();
+        criteria.setMinAge(minAge);
+        criteria.setMaxAge(minAge);
+        criteria.setSortBy(UserSearchCriteria.SortField.NAME);
+        criteria.setLimit(20);
+        return userDao.searchUsers(criteria);
+    }
+}
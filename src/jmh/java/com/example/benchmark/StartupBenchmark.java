@@ -0,0 +1,63 @@
+package com.example.benchmark;
+
+import com.example.dao.UserDAO;
+import com.example.entity.User;
+import com.example.util.HibernateUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+// Холодный старт: от первого обращения к HibernateUtil до ответа на первый запрос к БД.
+// Один замер на JVM (SingleShotTime без прогрева), статистика - по форкам.
+//   update   - прежний hbm2ddl.auto=update
+//   validate - схема по миграциям, Hibernate ее только сверяет (по умолчанию)
+//   fast     - -Dboot.fast=true, без сверки схемы и метаданных JDBC
+// Для AppCDS тот же замер с архивом: -Djmh.args="StartupBenchmark -jvmArgsAppend -XX:SharedArchiveFile=..."
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+
+    @Param({"update", "validate", "fast"})
+    public String bootMode;
+
+    final UserDAO userDao = new UserDAO();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // Миграции здесь же (Flyway), до замера
+        EmbeddedDatabase.start();
+        if ("update".equals(bootMode)) {
+            System.setProperty("hibernate.hbm2ddl.auto", "update");
+        } else if ("fast".equals(bootMode)) {
+            System.setProperty(HibernateUtil.FAST_BOOT, "true");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        HibernateUtil.shutdown();
+        EmbeddedDatabase.stop();
+    }
+
+    @Benchmark
+    public Optional<User> bootToFirstQuery() {
+        return userDao.getUserById(1L);
+    }
+}
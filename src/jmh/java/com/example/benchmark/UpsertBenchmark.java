@@ -0,0 +1,144 @@
+package com.example.benchmark;
+
+import com.example.dao.UpsertResult;
+import com.example.dao.UserDAO;
+import com.example.entity.User;
+import com.example.util.HibernateUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Синхронизация пользователей, которые в основном уже есть в БД.
+// createThenCatch* - как раньше: createUser, на нарушении уникальности email - поиск и updateUserFields.
+// upsert* - один INSERT ... ON CONFLICT. *New - email, которого еще нет; syncBatch* - пачка из 100
+// существующих пользователей, у каждого десятого поменялся возраст
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UpsertBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+
+    @Param({"10000"})
+    public int tableSize;
+
+    final UserDAO userDao = new UserDAO();
+    final AtomicLong sequence = new AtomicLong();
+    List<User> existing;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        EmbeddedDatabase.start();
+        existing = new ArrayList<>(tableSize);
+        for (int i = 0; i < tableSize; i++) {
+            existing.add(new User("user" + i, "user" + i + "@upsert.example.com", 18 + i % 60));
+        }
+        userDao.createUsers(existing, 500);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        HibernateUtil.shutdown();
+        EmbeddedDatabase.stop();
+    }
+
+    // Новый объект, как у задачи синхронизации: данные пришли извне, id неизвестен
+    static User copy(User user) {
+        return new User(user.getName(), user.getEmail(), user.getAge());
+    }
+
+    User newUser() {
+        long n = sequence.incrementAndGet();
+        return new User("new" + n, "new" + n + "@upsert.example.com", 30);
+    }
+
+    User randomExisting() {
+        return copy(existing.get(ThreadLocalRandom.current().nextInt(existing.size())));
+    }
+
+    List<User> randomBatch() {
+        List<User> batch = new ArrayList<>(BATCH_SIZE);
+        int from = ThreadLocalRandom.current().nextInt(existing.size() - BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            User user = copy(existing.get(from + i));
+            if (i % 10 == 0) {
+                user.setAge(18 + ThreadLocalRandom.current().nextInt(60));
+            }
+            batch.add(user);
+        }
+        return batch;
+    }
+
+    Long createThenCatch(User user) {
+        Optional<Long> created = userDao.createUser(user);
+        if (created.isPresent()) {
+            return created.get();
+        }
+        Optional<User> stored = userDao.getUserByEmail(user.getEmail());
+        if (stored.isEmpty()) {
+            return null;
+        }
+        User current = stored.get();
+        if (!user.getName().equals(current.getName()) || !Objects.equals(user.getAge(), current.getAge())) {
+            userDao.updateUserFields(current.getId(), user.getName(), null, user.getAge(), null);
+        }
+        return current.getId();
+    }
+
+    @Benchmark
+    public Long createThenCatchExisting() {
+        return createThenCatch(randomExisting());
+    }
+
+    @Benchmark
+    public UpsertResult upsertExisting() {
+        return userDao.upsertUser(randomExisting());
+    }
+
+    @Benchmark
+    public Long createThenCatchNew() {
+        return createThenCatch(newUser());
+    }
+
+    @Benchmark
+    public UpsertResult upsertNew() {
+        return userDao.upsertUser(newUser());
+    }
+
+    @Benchmark
+    public int syncBatchCreateThenCatch() {
+        int synced = 0;
+        for (User user : randomBatch()) {
+            if (createThenCatch(user) != null) {
+                synced++;
+            }
+        }
+        return synced;
+    }
+
+    @Benchmark
+    public List<UpsertResult> syncBatchUpsert() {
+        return userDao.upsertUsers(randomBatch());
+    }
+}
@@ -0,0 +1,212 @@
+package com.example.benchmark;
+
+import com.example.dao.UserDAO;
+import com.example.dao.UserStats;
+import com.example.dao.UserView;
+import com.example.entity.User;
+import com.example.util.HibernateUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Все операции UserDAO на таблицах разного размера.
+// Количество потоков задают вложенные классы (1/4/16), набор размеров - tableSize.
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public abstract class UserDaoBenchmark {
+
+    private static final int IDS_PER_CALL = 100;
+
+    @State(Scope.Benchmark)
+    public static class Table {
+
+        @Param({"1000", "10000", "100000"})
+        public int tableSize;
+
+        final UserDAO userDao = new UserDAO();
+        final AtomicLong sequence = new AtomicLong();
+        long[] ids;
+        String[] emails;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            EmbeddedDatabase.start();
+            List<User> users = new ArrayList<>(tableSize);
+            for (int i = 0; i < tableSize; i++) {
+                users.add(new User("user" + i, "user" + i + "@bench.example.com", 18 + i % 60));
+            }
+            userDao.createUsers(users, 500);
+
+            ids = new long[tableSize];
+            emails = new String[tableSize];
+            for (int i = 0; i < tableSize; i++) {
+                ids[i] = users.get(i).getId();
+                emails[i] = users.get(i).getEmail();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            HibernateUtil.shutdown();
+            EmbeddedDatabase.stop();
+        }
+
+        int randomIndex() {
+            return ThreadLocalRandom.current().nextInt(tableSize);
+        }
+
+        List<Long> randomIds(int count) {
+            List<Long> result = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                result.add(ids[randomIndex()]);
+            }
+            return result;
+        }
+
+        User newUser() {
+            long n = sequence.incrementAndGet();
+            return new User("new" + n, "new" + n + "-" + System.nanoTime() + "@bench.example.com", 30);
+        }
+    }
+
+    // Кандидаты на удаление создаются заранее, чтобы deleteUser мерил только удаление
+    @State(Scope.Thread)
+    public static class DeleteVictims {
+
+        private static final int PER_ITERATION = 5000;
+
+        long[] ids;
+        int next;
+
+        @Setup(Level.Iteration)
+        public void setUp(Table table) {
+            List<User> users = new ArrayList<>(PER_ITERATION);
+            for (int i = 0; i < PER_ITERATION; i++) {
+                users.add(table.newUser());
+            }
+            table.userDao.createUsers(users, 500);
+            ids = users.stream().mapToLong(User::getId).toArray();
+            next = 0;
+        }
+
+        long nextId() {
+            // Если кандидаты закончились, удаляем несуществующий id - это тот же round trip
+            return next < ids.length ? ids[next++] : -1L;
+        }
+    }
+
+    @Benchmark
+    public Optional<Long> createUser(Table table) {
+        return table.userDao.createUser(table.newUser());
+    }
+
+    @Benchmark
+    public Optional<User> getUserById(Table table) {
+        return table.userDao.getUserById(table.ids[table.randomIndex()]);
+    }
+
+    @Benchmark
+    public Optional<User> getUserByEmail(Table table) {
+        return table.userDao.getUserByEmail(table.emails[table.randomIndex()]);
+    }
+
+    // Тот же поиск для показа: UserView вместо managed-сущности (-prof gc: аллокации на операцию)
+    @Benchmark
+    public Optional<UserView> getUserViewById(Table table) {
+        return table.userDao.getUserViewById(table.ids[table.randomIndex()]);
+    }
+
+    @Benchmark
+    public Optional<UserView> getUserViewByEmail(Table table) {
+        return table.userDao.getUserViewByEmail(table.emails[table.randomIndex()]);
+    }
+
+    @Benchmark
+    public boolean updateUser(Table table) {
+        int index = table.randomIndex();
+        return table.userDao.updateUser(table.ids[index], null, null, 18 + ThreadLocalRandom.current().nextInt(60));
+    }
+
+    @Benchmark
+    public boolean deleteUser(Table table, DeleteVictims victims) {
+        return table.userDao.deleteUser(victims.nextId());
+    }
+
+    // 100 случайных id: одним multi-load против 100 отдельных getUserById
+    @Benchmark
+    public List<User> getUsersByIds(Table table) {
+        return table.userDao.getUsersByIds(table.randomIds(IDS_PER_CALL));
+    }
+
+    @Benchmark
+    public List<User> getUserByIdLoop(Table table) {
+        List<User> users = new ArrayList<>(IDS_PER_CALL);
+        for (Long id : table.randomIds(IDS_PER_CALL)) {
+            table.userDao.getUserById(id).ifPresent(users::add);
+        }
+        return users;
+    }
+
+    @Benchmark
+    public List<User> getUsersByEmails(Table table) {
+        List<String> emails = new ArrayList<>(IDS_PER_CALL);
+        for (int i = 0; i < IDS_PER_CALL; i++) {
+            emails.add(table.emails[table.randomIndex()]);
+        }
+        return table.userDao.getUsersByEmails(emails);
+    }
+
+    @Benchmark
+    public List<User> getAllUsers(Table table) {
+        return table.userDao.getAllUsers();
+    }
+
+    // Количество: агрегат в БД против прежнего getAllUsers().size()
+    @Benchmark
+    public long countUsers(Table table) {
+        return table.userDao.countUsers();
+    }
+
+    @Benchmark
+    public int countByLoadingAll(Table table) {
+        return table.userDao.getAllUsers().size();
+    }
+
+    @Benchmark
+    public UserStats loadStats(Table table) {
+        return table.userDao.loadStats(10, 30);
+    }
+
+    @Threads(1)
+    public static class OneThread extends UserDaoBenchmark {
+    }
+
+    @Threads(4)
+    public static class FourThreads extends UserDaoBenchmark {
+    }
+
+    @Threads(16)
+    public static class SixteenThreads extends UserDaoBenchmark {
+    }
+}
@@ -0,0 +1,144 @@
+package com.example.benchmark;
+
+import com.example.dao.UserDAO;
+import com.example.dao.UserSearchCriteria;
+import com.example.entity.User;
+import com.example.util.HibernateUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// UserDAO.searchUsers по каждому фильтру. Таблица заполняется с разбросом name/age/created_at.
+// Что поиски идут по индексам, а не сканированием, проверяет UserSearchTest
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserSearchBenchmark {
+
+    private static final String[] NAMES = {
+            "Anna", "Boris", "Viktor", "Galina", "Dmitry", "Elena", "Zhanna", "Igor", "Kirill", "Larisa",
+            "Maxim", "Nina", "Oleg", "Polina", "Roman", "Svetlana", "Timur", "Ulyana", "Fedor", "Yulia"};
+
+    @Param({"100000"})
+    public int tableSize;
+
+    final UserDAO userDao = new UserDAO();
+    Map<String, UserSearchCriteria> searches;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        EmbeddedDatabase.start();
+        Random random = new Random(11);
+        List<User> users = new ArrayList<>(tableSize);
+        for (int i = 0; i < tableSize; i++) {
+            users.add(new User(NAMES[random.nextInt(NAMES.length)] + i,
+                    "User" + i + "@Search.Example.com", 18 + random.nextInt(60)));
+        }
+        userDao.createUsers(users, 500);
+        // created_at выставляет @PrePersist, разносим регистрации по последнему году
+        HibernateUtil.runInTransaction(session -> session.createNativeQuery(
+                "UPDATE user_table SET created_at = now() - (id % 365) * interval '1 day' - (id % 1440) * interval '1 minute'")
+                .executeUpdate());
+        HibernateUtil.runInTransaction(session -> session.createNativeQuery("ANALYZE user_table").executeUpdate());
+
+        searches = searches(LocalDateTime.now());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        HibernateUtil.shutdown();
+        EmbeddedDatabase.stop();
+    }
+
+    static Map<String, UserSearchCriteria> searches(LocalDateTime now) {
+        Map<String, UserSearchCriteria> searches = new LinkedHashMap<>();
+
+        UserSearchCriteria namePrefix = new UserSearchCriteria();
+        namePrefix.setNamePrefix("Oleg12");
+        namePrefix.setSortBy(UserSearchCriteria.SortField.NAME);
+        searches.put("namePrefix", namePrefix);
+
+        UserSearchCriteria email = new UserSearchCriteria();
+        email.setEmail("USER4242@search.EXAMPLE.com");
+        searches.put("emailIgnoreCase", email);
+
+        UserSearchCriteria ageRange = new UserSearchCriteria();
+        ageRange.setMinAge(30);
+        ageRange.setMaxAge(31);
+        ageRange.setSortBy(UserSearchCriteria.SortField.AGE);
+        ageRange.setOffset(200);
+        searches.put("ageRange", ageRange);
+
+        UserSearchCriteria lastDays = new UserSearchCriteria();
+        lastDays.setCreatedFrom(now.minusDays(2));
+        lastDays.setCreatedTo(now);
+        lastDays.setSortBy(UserSearchCriteria.SortField.CREATED_AT);
+        searches.put("createdLastDays", lastDays);
+
+        UserSearchCriteria newest = new UserSearchCriteria();
+        newest.setSortBy(UserSearchCriteria.SortField.CREATED_AT);
+        newest.setDescending(true);
+        searches.put("newestFirst", newest);
+
+        UserSearchCriteria combined = new UserSearchCriteria();
+        combined.setNamePrefix("Anna1");
+        combined.setMinAge(25);
+        combined.setMaxAge(40);
+        combined.setCreatedFrom(now.minusDays(30));
+        combined.setSortBy(UserSearchCriteria.SortField.CREATED_AT);
+        combined.setDescending(true);
+        searches.put("combined", combined);
+        return searches;
+    }
+
+    @Benchmark
+    public List<User> namePrefix() {
+        return userDao.searchUsers(searches.get("namePrefix"));
+    }
+
+    @Benchmark
+    public List<User> emailIgnoreCase() {
+        return userDao.searchUsers(searches.get("emailIgnoreCase"));
+    }
+
+    @Benchmark
+    public List<User> ageRange() {
+        return userDao.searchUsers(searches.get("ageRange"));
+    }
+
+    @Benchmark
+    public List<User> createdLastDays() {
+        return userDao.searchUsers(searches.get("createdLastDays"));
+    }
+
+    @Benchmark
+    public List<User> newestFirst() {
+        return userDao.searchUsers(searches.get("newestFirst"));
+    }
+
+    @Benchmark
+    public List<User> combined() {
+        return userDao.searchUsers(searches.get("combined"));
+    }
+}
@@ -1,22 +1,97 @@
 package com.example;
 
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.stream.IntStream;
 
 public class EmailValidator {
 
-    // Основной паттерн для валидации email по стандарту RFC 5322
-    private static final String EMAIL_PATTERN =
-            "^[a-zA-Z0-9_+&*-]+(?:\\.[a-zA-Z0-9_+&*-]+)*@" +
-                    "(?:[a-zA-Z0-9-]+\\.)+[a-zA-Z]{2,7}$";
+    // Принимает то же множество строк, что и прежний паттерн
+    //   ^[a-zA-Z0-9_+&*-]+(?:\.[a-zA-Z0-9_+&*-]+)*@(?:[a-zA-Z0-9-]+\.)+[a-zA-Z]{2,7}$
+    // но за один проход по символам, без аллокаций и без бэктрекинга
+    private static final int MIN_TLD = 2;
+    private static final int MAX_TLD = 7;
 
-    private static final Pattern pattern = Pattern.compile(EMAIL_PATTERN);
+    // С какого размера validateAll раскладывает проверку по ForkJoinPool
+    private static final int PARALLEL_THRESHOLD = 10_000;
+
+    private static final boolean[] LOCAL = new boolean[128];
+    private static final boolean[] DOMAIN = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            LOCAL[c] = DOMAIN[c] = true;
+            LOCAL[Character.toUpperCase(c)] = DOMAIN[Character.toUpperCase(c)] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            LOCAL[c] = DOMAIN[c] = true;
+        }
+        LOCAL['-'] = DOMAIN['-'] = true;
+        LOCAL['_'] = LOCAL['+'] = LOCAL['&'] = LOCAL['*'] = true;
+    }
 
     public static boolean isValid(String email) {
-        if (email == null || email.trim().isEmpty()) {
+        if (email == null) {
+            return false;
+        }
+        int length = email.length();
+        int i = 0;
+
+        // Локальная часть: непустые атомы через одиночную точку
+        int atom = 0;
+        for (; i < length; i++) {
+            char c = email.charAt(i);
+            if (c == '@') {
+                break;
+            }
+            if (c == '.') {
+                if (atom == 0) {
+                    return false;
+                }
+                atom = 0;
+            } else if (c < 128 && LOCAL[c]) {
+                atom++;
+            } else {
+                return false;
+            }
+        }
+        if (i == length || atom == 0) {
             return false;
         }
-        Matcher matcher = pattern.matcher(email);
-        return matcher.matches();
+        i++;
+
+        // Домен: хотя бы одна метка с точкой, последняя метка - только буквы, 2..7 символов
+        int dots = 0;
+        int label = 0;
+        boolean lettersOnly = true;
+        for (; i < length; i++) {
+            char c = email.charAt(i);
+            if (c == '.') {
+                if (label == 0) {
+                    return false;
+                }
+                dots++;
+                label = 0;
+                lettersOnly = true;
+            } else if (c < 128 && DOMAIN[c]) {
+                label++;
+                lettersOnly &= (c | 0x20) >= 'a' && (c | 0x20) <= 'z';
+            } else {
+                return false;
+            }
+        }
+        return dots > 0 && lettersOnly && label >= MIN_TLD && label <= MAX_TLD;
+    }
+
+    // Индексы невалидных адресов по возрастанию (пустой массив - все валидны).
+    // Индексы совпадают с номерами строк в BulkImportResult при импорте того же списка
+    public static int[] validateAll(List<String> emails) {
+        List<String> source = emails instanceof RandomAccess ? emails : new ArrayList<>(emails);
+        IntStream indices = IntStream.range(0, source.size());
+        if (source.size() >= PARALLEL_THRESHOLD) {
+            indices = indices.parallel();
+        }
+        return indices.filter(i -> !isValid(source.get(i))).toArray();
     }
 }
\ No newline at end of file
@@ -1,8 +1,14 @@
 package com.example;
+import com.example.dao.EmailFilter;
+import com.example.dao.UpdateResult;
 import com.example.dao.UserDAO;
+import com.example.dao.UserStats;
+import com.example.dao.UserView;
+import com.example.dao.WriteBehindUserWriter;
 import com.example.entity.User;
+import com.example.logging.LogMarkers;
+import com.example.metrics.UserServiceMetrics;
 import com.example.util.HibernateUtil;
-import java.util.List;
 import java.util.Optional;
 import java.util.Scanner;
 
@@ -11,18 +17,52 @@ import org.slf4j.LoggerFactory;
 
 public class Main {
     private static final UserDAO userDao = new UserDAO();
+    // -DwriteBehind.enabled=true: создание и обновление не ждут commit, а пишутся пачками в фоне
+    private static final WriteBehindUserWriter writeBehind = Boolean.getBoolean("writeBehind.enabled")
+            ? new WriteBehindUserWriter(userDao,
+                    Integer.getInteger("writeBehind.capacity", 10_000),
+                    Integer.getInteger("writeBehind.maxBatch", 500),
+                    Long.getLong("writeBehind.maxDelayMs", 50))
+            : null;
+    // -DemailFilter.enabled=true: занятость email сначала проверяется фильтром Блума в памяти
+    private static final EmailFilter emailFilter = Boolean.getBoolean("emailFilter.enabled")
+            ? new EmailFilter(userDao,
+                    Double.parseDouble(System.getProperty("emailFilter.fpp", "0.01")),
+                    Long.getLong("emailFilter.maxMb", 64) << 20,
+                    Long.getLong("emailFilter.rebuildMs", 3_600_000))
+            : null;
     private static final Scanner scanner = new Scanner(System.in);
     private static final Logger logger = LoggerFactory.getLogger(Main.class);
 
     public static void main(String[] args) {
 
         try {
-            logger.info(MAGENTA + "User Service приложение запущено" + RESET);
+            // --boot-only: только поднять Hibernate и выйти (замер старта, обучающий прогон для AppCDS)
+            if (args.length > 0 && "--boot-only".equals(args[0])) {
+                HibernateUtil.getSessionFactory();
+                return;
+            }
+            if (writeBehind != null) {
+                writeBehind.start();
+            }
+            if (emailFilter != null) {
+                emailFilter.start();
+            }
+            // Hibernate стартует в фоне, меню доступно сразу
+            HibernateUtil.startAsync();
+            logger.info(LogMarkers.HIGHLIGHT, "User Service приложение запущено");
+            UserServiceMetrics.registerMBean();
             showMenu();
         } catch (Exception e) {
             //System.err.println("Application error: " + e.getMessage());
-            logger.error(RED + "Произошла ошибка: {}", e.getMessage() + RESET);
+            logger.error("Произошла ошибка: {}", e.getMessage());
         } finally {
+            if (writeBehind != null) {
+                writeBehind.close();
+            }
+            if (emailFilter != null) {
+                emailFilter.close();
+            }
             HibernateUtil.shutdown();
             scanner.close();
             logger.debug("Завершение работы приложения....");
@@ -38,6 +78,7 @@ public class Main {
             System.out.println("пресс --> {UPDATE} чтобы обновить пользователя");
             System.out.println("пресс --> {DELETE} чтобы Удалить пользователя");
             System.out.println("пресс --> {FIND_E} чтобы найти пользователя по email");
+            System.out.println("пресс --> {STATS} чтобы показать статистику по пользователям");
             System.out.println("пресс --> {EXIT} чтобы выйти");
             System.out.print("пресс --> ");
             try {
@@ -61,20 +102,23 @@ public class Main {
                     case "FIND_E":
                         getUserByEmail();
                         break;
+                    case "STATS":
+                        showStats();
+                        break;
                     case "EXIT":
                         return;
                     default:
-                        logger.error(RED + "[ERROR] выбрана недоступная опция" + RESET);
+                        logger.error("[ERROR] выбрана недоступная опция");
                         break;
                 }
             } catch (Exception e) {
-                logger.error(RED + "Произошла ошибка: {}", e.getMessage() + RESET);
+                logger.error("Произошла ошибка: {}", e.getMessage());
             }
         }
     }
 
     private static void createUser() {
-        logger.info(CYAN + "... Create New User" + RESET);
+        logger.info(LogMarkers.SECTION, "... Create New User");
 
         try {
             System.out.print("Enter user name /or nickname --> ");
@@ -86,10 +130,14 @@ public class Main {
                 email = scanner.nextLine().trim();
 
                 if (EmailValidator.isValid(email)) {
-                    logger.info(GREEN + "✓ Email корректен!" + RESET);
+                    if (userDao.isEmailTaken(email)) {
+                        logger.info(LogMarkers.FAILURE, "✗ Email уже занят, введите другой");
+                        continue;
+                    }
+                    logger.info(LogMarkers.SUCCESS, "✓ Email корректен!");
                     break;
                 } else {
-                    logger.info(RED + "✗ Неверный формат email! Пример: user@example.com" + RESET);
+                    logger.info(LogMarkers.FAILURE, "✗ Неверный формат email! Пример: user@example.com");
                 }
             } while (true);
 
@@ -97,50 +145,77 @@ public class Main {
             int age = Integer.parseInt(scanner.nextLine().trim());
 
             if (name.isEmpty() || email.isEmpty()) {
-                logger.error(RED + "Name and email cannot be empty!" + RESET);
+                logger.error("Name and email cannot be empty!");
                 return;
             }
 
             User user = new User(name, email, age);
+            if (writeBehind != null) {
+                writeBehind.createUser(user).whenComplete((id, error) -> {
+                    if (error == null) {
+                        logger.info(LogMarkers.SUCCESS, "User created successfully with ID: {}", id);
+                    } else {
+                        logger.error("Failed to create user: {}", error.getMessage());
+                    }
+                });
+                logger.info(LogMarkers.NOTICE, "User queued for creation");
+                return;
+            }
             Optional<Long> userId = userDao.createUser(user);
 
             if (userId.isPresent()) {
-                logger.info(GREEN + "User created successfully with ID: {}", userId.get() + RESET);
+                logger.info(LogMarkers.SUCCESS, "User created successfully with ID: {}", userId.get());
             } else {
-                logger.error(RED + "Failed to create user. Email might already exist." + RESET);
+                logger.error("Failed to create user. Email might already exist.");
             }
         } catch (NumberFormatException e) {
-            logger.error(RED + "Invalid age format! Please enter a number." + RESET);
+            logger.error("Invalid age format! Please enter a number.");
         }
     }
 
     private static void getUserById() {
-        logger.info(CYAN + "--> Get User by ID" + RESET);
+        logger.info(LogMarkers.SECTION, "--> Get User by ID");
 
         try {
             System.out.print("Enter User ID: ");
             Long id = Long.parseLong(scanner.nextLine().trim());
 
-            Optional<User> user = userDao.getUserById(id);
+            Optional<UserView> user = userDao.getUserViewById(id);
             if (user.isPresent()) {
-                logger.info(GREEN + "User found: {}", user.get() + RESET);
+                logger.info(LogMarkers.SUCCESS, "User found: {}", user.get());
             } else {
-                logger.info(RED + "User not found with ID: {}", id + RESET);
+                logger.info(LogMarkers.FAILURE, "User not found with ID: {}", id);
             }
         } catch (NumberFormatException e) {
-            logger.error(RED + "Invalid ID format!" + RESET);
+            logger.error("Invalid ID format!");
         }
     }
 
     private static void getAllUsers() {
-        logger.info(CYAN + "--> show All Users" + RESET);
-        List<User> users = userDao.getAllUsers();
-        if (users.isEmpty()) {
-            logger.info(YELLOW + "No users found." + RESET);
+        logger.info(LogMarkers.SECTION, "--> show All Users");
+        long total = userDao.forEachUserView(System.out::println);
+        if (total == 0) {
+            logger.info(LogMarkers.NOTICE, "No users found.");
         } else {
-            logger.info(MAGENTA + "Total users = {}", users.size() + RESET);
-            users.forEach(System.out::println);
+            logger.info(LogMarkers.HIGHLIGHT, "Total users = {}", total);
+        }
+    }
 
+    // Агрегаты считает БД, пользователи в память не загружаются
+    private static void showStats() {
+        logger.info(LogMarkers.SECTION, "--> User statistics");
+        UserStats stats = userDao.loadStats(10, 7);
+        if (stats == null) {
+            logger.error(LogMarkers.FAILURE, "Failed to load statistics");
+            return;
+        }
+        logger.info(LogMarkers.HIGHLIGHT, "Total users = {}", stats.getTotalUsers());
+        System.out.println(stats.getAgeSummary());
+        for (UserStats.AgeBucket bucket : stats.getAgeBuckets()) {
+            System.out.println("  age " + bucket);
+        }
+        for (UserStats.DailySignups day : stats.getSignupsPerDay()) {
+            System.out.println("  signups " + day);
         }
     }
 
@@ -151,15 +226,6 @@ public class Main {
             System.out.print("Enter User ID to update: ");
             Long id = Long.parseLong(scanner.nextLine().trim());
 
-            Optional<User> userOpt = userDao.getUserById(id);
-            if (userOpt.isEmpty()) {
-                logger.info(RED + "User not found with ID: {}", id + RESET);
-                return;
-            }
-
-            User user = userOpt.get();
-            logger.info("Current user: {}", user);
-
             System.out.print("Enter new name (press Enter to keep current): ");
             String name = scanner.nextLine().trim();
             if (name.isEmpty()) {
@@ -173,12 +239,13 @@ public class Main {
                 email = scanner.nextLine().trim();
                 if (email.isEmpty()) {
                     email = null;
+                    break;
                 }
                 else if (EmailValidator.isValid(email)) {
-                    logger.info(GREEN + "✓ Email корректен!" + RESET);
+                    logger.info(LogMarkers.SUCCESS, "✓ Email корректен!");
                     break;
                 } else {
-                    logger.info(RED + "✗ Неверный формат email! Пример: user@example.com" + RESET);
+                    logger.info(LogMarkers.FAILURE, "✗ Неверный формат email! Пример: user@example.com");
                 }
             } while (true);
 
@@ -189,14 +256,38 @@ public class Main {
                 ageInt = Integer.parseInt(ageInput);
             }
 
-            boolean success = userDao.updateUser(id, name, email, ageInt);
-            if (success) {
-                logger.info(GREEN + "User updated successfully." + RESET);
-            } else {
-                logger.error("Failed to update user.");
+            if (writeBehind != null) {
+                writeBehind.updateUser(id, name, email, ageInt).whenComplete((updated, error) -> {
+                    if (error != null) {
+                        logger.error("Failed to update user: {}", error.getMessage());
+                    } else if (updated) {
+                        logger.info(LogMarkers.SUCCESS, "User {} updated successfully.", id);
+                    } else {
+                        logger.info(LogMarkers.FAILURE, "User {} not found or nothing to update", id);
+                    }
+                });
+                logger.info(LogMarkers.NOTICE, "Update queued");
+                return;
+            }
+
+            // Проверка существования и обновление - один UPDATE
+            UpdateResult result = userDao.updateUserFields(id, name, email, ageInt, null);
+            switch (result) {
+                case UPDATED:
+                    logger.info(LogMarkers.SUCCESS, "User updated successfully.");
+                    break;
+                case NOT_FOUND:
+                    logger.info(LogMarkers.FAILURE, "User not found with ID: {}", id);
+                    break;
+                case NO_CHANGES:
+                    logger.info(LogMarkers.NOTICE, "No fields to update.");
+                    break;
+                default:
+                    logger.error("Failed to update user.");
+                    break;
             }
         } catch (NumberFormatException e) {
-            logger.error(RED + "Invalid number format!" + RESET);
+            logger.error("Invalid number format!");
         }
     }
 
@@ -215,15 +306,15 @@ public class Main {
             if (confirmation.equalsIgnoreCase("y")) {
                 boolean success = userDao.deleteUser(id);
                 if (success) {
-                    logger.info(GREEN + "User deleted successfully." + RESET);
+                    logger.info(LogMarkers.SUCCESS, "User deleted successfully.");
                 } else {
-                    logger.error(RED + "Failed to delete user or user not found." + RESET);
+                    logger.error("Failed to delete user or user not found.");
                 }
             } else {
                 logger.info("Deletion cancelled.");
             }
         } catch (NumberFormatException e) {
-            logger.info(RED + "Invalid ID format!" + RESET);
+            logger.info(LogMarkers.FAILURE, "Invalid ID format!");
         }
     }
 
@@ -233,22 +324,16 @@ public class Main {
         System.out.print("Enter email: ");
         String email = scanner.nextLine().trim();
 
-        Optional<User> user = userDao.getUserByEmail(email);
+        Optional<UserView> user = userDao.getUserViewByEmail(email);
         if (user.isPresent()) {
             System.out.println(BLUE + "User found:" + RESET);
             System.out.println(user.get());
         } else {
-            logger.info(RED + "User not found with email: {}", email + RESET);
+            logger.info(LogMarkers.FAILURE, "User not found with email: {}", email);
         }
     }
-    // ANSI escape codes
+    // ANSI escape codes (только для вывода меню, логи раскрашивает ColorConverter)
     public static final String RESET = "\u001B[0m";
-    public static final String RED = "\u001B[31m";
-    public static final String GREEN = "\u001B[32m";
-    public static final String YELLOW = "\u001B[33m";
     public static final String BLUE = "\u001B[34m";
-    public static final String MAGENTA = "\u001B[35m";
-    public static final String CYAN = "\u001B[36m";
-    public static final String WHITE = "\u001B[37m";
 
 }
\ No newline at end of file
@@ -0,0 +1,56 @@
+package com.example.dao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class BulkImportResult {
+
+    private final List<Long> createdIds = new ArrayList<>();
+    private final List<RowFailure> failures = new ArrayList<>();
+
+    void addCreated(Long id) {
+        createdIds.add(id);
+    }
+
+    void addFailure(int index, String email, String reason) {
+        failures.add(new RowFailure(index, email, reason));
+    }
+
+    public int getCreatedCount() { return createdIds.size(); }
+
+    public List<Long> getCreatedIds() { return Collections.unmodifiableList(createdIds); }
+
+    public List<RowFailure> getFailures() { return Collections.unmodifiableList(failures); }
+
+    public boolean hasFailures() { return !failures.isEmpty(); }
+
+    @Override
+    public String toString() {
+        return String.format("[Import INFO] created = %d, failed = %d", createdIds.size(), failures.size());
+    }
+
+    // Ошибка конкретной строки импорта, index - позиция во входной последовательности
+    public static class RowFailure {
+        private final int index;
+        private final String email;
+        private final String reason;
+
+        RowFailure(int index, String email, String reason) {
+            this.index = index;
+            this.email = email;
+            this.reason = reason;
+        }
+
+        public int getIndex() { return index; }
+
+        public String getEmail() { return email; }
+
+        public String getReason() { return reason; }
+
+        @Override
+        public String toString() {
+            return String.format("row %d (email = '%s'): %s", index, email, reason);
+        }
+    }
+}
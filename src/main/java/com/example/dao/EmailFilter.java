@@ -0,0 +1,136 @@
+package com.example.dao;
+
+import com.example.metrics.DaoMetrics;
+import com.example.metrics.FilterMetrics;
+import com.example.util.BloomFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Фильтр Блума по user_table.email перед БД: поиск email, которого точно нет, отвечает пустым
+// результатом без запроса. Строится в фоне потоком всех email с primary, записи UserDAO добавляют
+// новые email сразу. Удаленные email из фильтра не уходят, поэтому раз в rebuildMs он строится заново.
+// Пока первая сборка не закончилась, все поиски идут в БД
+public class EmailFilter implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(EmailFilter.class);
+
+    // Запас на рост таблицы до следующей пересборки
+    private static final double GROWTH = 1.5;
+    private static final long MIN_EXPECTED = 10_000;
+
+    private final UserDAO userDao;
+    private final double fpp;
+    private final long maxBytes;
+    private final long rebuildMs;
+    private final FilterMetrics metrics = DaoMetrics.filter("email");
+    private final ScheduledExecutorService scheduler;
+    // null, пока фильтр не построен
+    private volatile BloomFilter current;
+    // Фильтр, который сейчас заполняется пересборкой: новые email пишутся и в него
+    private volatile BloomFilter building;
+    private final List<ReactiveUserRepository> repositories = new CopyOnWriteArrayList<>();
+
+    public EmailFilter(UserDAO userDao, double fpp, long maxBytes, long rebuildMs) {
+        if (rebuildMs < 1) {
+            throw new IllegalArgumentException("rebuildMs must be positive");
+        }
+        this.userDao = userDao;
+        this.fpp = fpp;
+        this.maxBytes = maxBytes;
+        this.rebuildMs = rebuildMs;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "email-filter-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Подключение к UserDAO и первая сборка - после конструктора: DAO и поток пересборки
+    // не должны увидеть недостроенный объект
+    public EmailFilter start() {
+        userDao.setEmailFilter(this);
+        scheduler.scheduleWithFixedDelay(this::rebuild, 0, rebuildMs, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    // false - такого email в БД точно нет
+    public boolean mightContain(String email) {
+        BloomFilter filter = current;
+        if (filter == null) {
+            return true;
+        }
+        boolean result = filter.mightContain(email);
+        metrics.recordCheck(result);
+        return result;
+    }
+
+    // Записи через ReactiveUserRepository тоже должны попадать в фильтр, а его поиски - проверять его
+    public void attach(ReactiveUserRepository repository) {
+        repository.setEmailFilter(this);
+        repositories.add(repository);
+    }
+
+    public boolean isReady() {
+        return current != null;
+    }
+
+    // Сначала building, потом current: если пересборка успела подменить current, email все равно
+    // попадет в новый фильтр
+    void add(String email) {
+        BloomFilter next = building;
+        BloomFilter filter = current;
+        if (filter != null) {
+            filter.put(email);
+        }
+        if (next != null && next != filter) {
+            next.put(email);
+        }
+    }
+
+    // Фильтр сказал "возможно", а в БД строки не оказалось
+    void recordFalsePositive() {
+        if (current != null) {
+            metrics.recordFalsePositive();
+        }
+    }
+
+    // Неудачная пересборка оставляет прежний фильтр
+    public boolean rebuild() {
+        long start = System.nanoTime();
+        try {
+            long count = userDao.countUsers();
+            if (count < 0) {
+                metrics.recordRebuildFailure();
+                return false;
+            }
+            BloomFilter next = BloomFilter.create(Math.max(MIN_EXPECTED, (long) (count * GROWTH)), fpp, maxBytes);
+            building = next;
+            long added = userDao.forEachEmail(next::put);
+            current = next;
+            metrics.recordRebuild(next);
+            logger.info("Email filter rebuilt: {} emails, {} KB, {} hashes, in {} ms", added,
+                    next.getSizeBytes() / 1024, next.getHashCount(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return true;
+        } catch (RuntimeException e) {
+            // Исключение из задачи остановило бы дальнейшие пересборки
+            metrics.recordRebuildFailure();
+            logger.warn("Email filter rebuild failed: {}", e.getMessage());
+            return false;
+        } finally {
+            building = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        userDao.setEmailFilter(null);
+        repositories.forEach(repository -> repository.setEmailFilter(null));
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,457 @@
+package com.example.dao;
+
+import com.example.entity.User;
+import com.example.metrics.DaoMetrics;
+import com.example.metrics.OperationMetrics;
+import com.example.util.HibernateUtil;
+import com.example.util.Shards;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.postgresql.PostgresqlConnectionConfiguration;
+import io.r2dbc.postgresql.PostgresqlConnectionFactory;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.R2dbcDataIntegrityViolationException;
+import io.r2dbc.spi.R2dbcNonTransientResourceException;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.RowMetadata;
+import io.r2dbc.spi.Statement;
+import org.hibernate.Cache;
+import org.hibernate.cfg.AvailableSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.adapter.JdkFlowAdapter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+// Неблокирующий доступ к user_table через R2DBC: те же операции, что у UserDAO, но поток вызывающего
+// не ждет БД. Результаты завершаются на потоках event loop драйвера - в продолжениях нельзя блокироваться.
+//
+// Точечные запросы идут по нескольким общим соединениям на шард (connectionsPerShard): драйвер отправляет
+// запросы, не дожидаясь ответов на предыдущие (pipelining), поэтому число одновременных запросов
+// не ограничено числом соединений. Поток всех пользователей читает курсором по fetchSize строк
+// на отдельном соединении из пула, следующая порция запрашивается по мере спроса подписчика.
+//
+// Схема, шарды и sequence - те же, что у UserDAO (настройки из hibernate.cfg.xml и -D). Кэш второго
+// уровня не используется; измененные здесь строки вытесняются из кэша UserDAO, если Hibernate запущен
+public class ReactiveUserRepository implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveUserRepository.class);
+    private static final int STREAM_FETCH_SIZE = 500;
+
+    private static final String COLUMNS = "id, name, email, age, created_at, version";
+    // nextval - верхняя граница пула Hibernate (allocationSize 50), взятое здесь значение в пулы
+    // UserDAO не попадает. Свой пул id потребовал бы еще одного ожидания БД на создание
+    private static final String INSERT_SQL = "INSERT INTO user_table (" + COLUMNS + ")"
+            + " VALUES (nextval('user_table_seq'), $1, $2, $3, $4, 0) RETURNING id";
+    private static final String BY_ID_SQL = "SELECT " + COLUMNS + " FROM user_table WHERE id = $1";
+    private static final String BY_EMAIL_SQL = "SELECT " + COLUMNS + " FROM user_table WHERE email = $1";
+    private static final String PAGE_SQL = "SELECT " + COLUMNS + " FROM user_table WHERE id > $1 ORDER BY id LIMIT $2";
+    // Параметр нужен, чтобы запрос шел расширенным протоколом: только в нем драйвер читает курсором
+    private static final String STREAM_SQL = "SELECT " + COLUMNS + " FROM user_table WHERE id > $1 ORDER BY id";
+    private static final String EXISTS_SQL = "SELECT 1 FROM user_table WHERE id = $1";
+    private static final String DELETE_SQL = "DELETE FROM user_table WHERE id = $1";
+    private static final String[][] UPDATE_SQL = updateSql();
+
+    private static final OperationMetrics CREATE = DaoMetrics.operation("reactiveCreateUser");
+    private static final OperationMetrics GET_BY_ID = DaoMetrics.operation("reactiveGetUserById");
+    private static final OperationMetrics GET_BY_EMAIL = DaoMetrics.operation("reactiveGetUserByEmail");
+    private static final OperationMetrics GET_PAGE = DaoMetrics.operation("reactiveGetUsersPage");
+    private static final OperationMetrics STREAM = DaoMetrics.operation("reactiveStreamAllUsers");
+    private static final OperationMetrics UPDATE = DaoMetrics.operation("reactiveUpdateUser");
+    private static final OperationMetrics DELETE = DaoMetrics.operation("reactiveDeleteUser");
+
+    private final List<Shard> shards;
+    // Фильтр Блума по email, null - не включен
+    private volatile EmailFilter emailFilter;
+
+    public ReactiveUserRepository(int connectionsPerShard) {
+        if (connectionsPerShard < 1) {
+            throw new IllegalArgumentException("connectionsPerShard must be positive");
+        }
+        Map<String, Object> settings = HibernateUtil.getConfiguredSettings();
+        List<Shard> shards = new ArrayList<>();
+        for (String url : Shards.jdbcUrls(settings)) {
+            shards.add(new Shard(connectionFactory(url, settings), connectionsPerShard));
+        }
+        this.shards = List.copyOf(shards);
+    }
+
+    // jdbc:postgresql://host:port/database?... -> настройки R2DBC, логин и пароль - как у Hibernate
+    private static PostgresqlConnectionFactory connectionFactory(String jdbcUrl, Map<String, Object> settings) {
+        URI uri = URI.create(jdbcUrl.substring("jdbc:".length()));
+        Object password = settings.get(AvailableSettings.PASS);
+        return new PostgresqlConnectionFactory(PostgresqlConnectionConfiguration.builder()
+                .host(uri.getHost())
+                .port(uri.getPort() > 0 ? uri.getPort() : 5432)
+                .database(uri.getPath().substring(1))
+                .username(settings.get(AvailableSettings.USER).toString())
+                .password(password == null ? null : password.toString())
+                .applicationName("user-service-reactive")
+                .build());
+    }
+
+    void setEmailFilter(EmailFilter emailFilter) {
+        this.emailFilter = emailFilter;
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    // Пустой результат - запись не удалась (например, email уже занят). При успехе id и version
+    // проставляются в user, как после UserDAO.createUser
+    public CompletableFuture<Optional<Long>> createUser(User user) {
+        int shard = Shards.shardOfEmail(user.getEmail(), shards.size());
+        // В фильтр до записи и еще раз после: пересборка могла взять снимок таблицы между ними
+        remember(user.getEmail());
+        return run(CREATE, shards.get(shard).withConnection(connection -> {
+            Statement statement = connection.createStatement(INSERT_SQL);
+            bind(statement, 0, user.getName(), String.class);
+            bind(statement, 1, user.getEmail(), String.class);
+            bind(statement, 2, user.getAge(), Integer.class);
+            statement.bind(3, user.getCreatedAt() != null ? user.getCreatedAt() : LocalDateTime.now());
+            return Flux.from(statement.execute())
+                    .concatMap(result -> result.map((row, metadata) -> row.get(0, Long.class)))
+                    .single()
+                    .map(id -> {
+                        user.setId(id);
+                        user.setVersion(0L);
+                        remember(user.getEmail());
+                        return Optional.of(id);
+                    });
+        }), Optional.empty());
+    }
+
+    public CompletableFuture<Optional<User>> getUserById(Long id) {
+        int shard = Shards.shardOfId(id, shards.size());
+        if (shard < 0) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        return run(GET_BY_ID, shards.get(shard).withConnection(connection ->
+                findOne(connection.createStatement(BY_ID_SQL).bind(0, id))), Optional.empty());
+    }
+
+    public CompletableFuture<Optional<User>> getUserByEmail(String email) {
+        EmailFilter filter = emailFilter;
+        if (filter != null && email != null && !filter.mightContain(email)) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        int shard = Shards.shardOfEmail(email, shards.size());
+        return run(GET_BY_EMAIL, shards.get(shard).withConnection(connection ->
+                findOne(connection.createStatement(BY_EMAIL_SQL).bind(0, email))), Optional.empty());
+    }
+
+    private static Mono<Optional<User>> findOne(Statement statement) {
+        return Flux.from(statement.execute())
+                .concatMap(result -> result.map(ReactiveUserRepository::toUser))
+                .next()
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty());
+    }
+
+    // Keyset-пагинация, как UserDAO.getUsersPage: с шарда afterId и дальше по порядку шардов,
+    // следующий шард читается, только если на предыдущем строки кончились. Пустая страница - конец
+    // данных, поэтому ошибка чтения не подменяется пустым списком, а завершает future исключением
+    public CompletableFuture<List<User>> getUsersPage(Long afterId, int limit) {
+        if (limit < 1) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("limit must be positive"));
+        }
+        int first = afterId == null ? 0 : Shards.shardOfId(afterId, shards.size());
+        if (first < 0) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        Flux<User> users = Flux.range(first, shards.size() - first).concatMap(shard -> {
+            long after = shard == first && afterId != null ? afterId : 0L;
+            return shards.get(shard).withConnection(connection -> Flux.from(connection.createStatement(PAGE_SQL)
+                            .bind(0, after)
+                            .bind(1, limit)
+                            .execute())
+                    .concatMap(result -> result.map(ReactiveUserRepository::toUser))
+                    .collectList());
+        }).concatMapIterable(part -> part);
+        return runOrFail(GET_PAGE, users.take(limit).collectList());
+    }
+
+    public Flow.Publisher<User> streamAllUsers() {
+        return streamAllUsers(STREAM_FETCH_SIZE);
+    }
+
+    // Все пользователи по возрастанию id, шарды по очереди. Строки читаются порциями по fetchSize
+    // по мере запроса подписчика; отмена подписки закрывает курсор и возвращает соединение в пул
+    public Flow.Publisher<User> streamAllUsers(int fetchSize) {
+        Flux<User> users = Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicBoolean first = new AtomicBoolean(true);
+            return Flux.range(0, shards.size())
+                    .concatMap(shard -> shards.get(shard).stream(connection -> Flux.from(connection
+                                    .createStatement(STREAM_SQL)
+                                    .bind(0, 0L)
+                                    .fetchSize(fetchSize)
+                                    .execute())
+                            .concatMap(result -> result.map(ReactiveUserRepository::toUser))), 1)
+                    // Учитывается время до первой строки, дальше чтение зависит от подписчика
+                    .doOnNext(user -> {
+                        if (first.compareAndSet(true, false)) {
+                            STREAM.record(start);
+                        }
+                    })
+                    .doOnError(error -> {
+                        STREAM.recordError(error);
+                        logError(error);
+                    });
+        });
+        return JdkFlowAdapter.publisherToFlowPublisher(users);
+    }
+
+    // Частичное обновление, как UserDAO.updateUserFields: одним UPDATE, version увеличивается,
+    // expectedVersion - проверка версии. Смена email с переездом на другой шард не поддерживается
+    public CompletableFuture<UpdateResult> updateUserFields(Long id, String name, String email, Integer age,
+                                                            Long expectedVersion) {
+        boolean hasName = name != null && !name.isEmpty();
+        boolean hasEmail = email != null && !email.isEmpty();
+        boolean hasAge = age != null;
+        int shape = (hasName ? 1 : 0) | (hasEmail ? 2 : 0) | (hasAge ? 4 : 0);
+        if (shape == 0) {
+            return CompletableFuture.completedFuture(UpdateResult.NO_CHANGES);
+        }
+        int shard = Shards.shardOfId(id, shards.size());
+        if (shard < 0) {
+            return CompletableFuture.completedFuture(UpdateResult.NOT_FOUND);
+        }
+        if (hasEmail && Shards.shardOfEmail(email, shards.size()) != shard) {
+            logger.warn("Email change of user {} needs moving the row to another shard, rejected", id);
+            return CompletableFuture.completedFuture(UpdateResult.FAILED);
+        }
+        boolean versioned = expectedVersion != null;
+        if (hasEmail) {
+            remember(email);
+        }
+
+        return run(UPDATE, shards.get(shard).withConnection(connection -> {
+            Statement statement = connection.createStatement(UPDATE_SQL[versioned ? 1 : 0][shape]);
+            int index = 0;
+            if (hasName) {
+                statement.bind(index++, name);
+            }
+            if (hasEmail) {
+                statement.bind(index++, email);
+            }
+            if (hasAge) {
+                statement.bind(index++, age);
+            }
+            statement.bind(index++, id);
+            if (versioned) {
+                statement.bind(index, expectedVersion);
+            }
+            return Flux.from(statement.execute())
+                    .concatMap(result -> result.getRowsUpdated())
+                    .reduce(0L, Long::sum)
+                    .flatMap(updated -> {
+                        if (updated > 0) {
+                            evict(shard, id, hasEmail);
+                            if (hasEmail) {
+                                remember(email);
+                            }
+                            return Mono.just(UpdateResult.UPDATED);
+                        }
+                        // Лишний запрос только на неуспешном пути: конфликт версий или нет записи
+                        if (!versioned) {
+                            return Mono.just(UpdateResult.NOT_FOUND);
+                        }
+                        return Flux.from(connection.createStatement(EXISTS_SQL).bind(0, id).execute())
+                                .concatMap(result -> result.map((row, metadata) -> true))
+                                .hasElements()
+                                .map(exists -> exists ? UpdateResult.VERSION_CONFLICT : UpdateResult.NOT_FOUND);
+                    });
+        }), UpdateResult.FAILED);
+    }
+
+    public CompletableFuture<Boolean> deleteUser(Long id) {
+        int shard = Shards.shardOfId(id, shards.size());
+        if (shard < 0) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return run(DELETE, shards.get(shard).withConnection(connection ->
+                Flux.from(connection.createStatement(DELETE_SQL).bind(0, id).execute())
+                        .concatMap(result -> result.getRowsUpdated())
+                        .reduce(0L, Long::sum)
+                        .map(deleted -> {
+                            if (deleted > 0) {
+                                evict(shard, id, true);
+                            }
+                            return deleted > 0;
+                        })), false);
+    }
+
+    // Ошибка не уходит вызывающему исключением, как и в UserDAO: логируется, результат - onError
+    private static <T> CompletableFuture<T> run(OperationMetrics metrics, Mono<T> work, T onError) {
+        return Mono.fromSupplier(System::nanoTime).flatMap(start -> work
+                        .onErrorResume(error -> {
+                            metrics.recordError(error);
+                            logError(error);
+                            return Mono.just(onError);
+                        })
+                        .doFinally(signal -> metrics.record(start)))
+                .toFuture();
+    }
+
+    private static <T> CompletableFuture<T> runOrFail(OperationMetrics metrics, Mono<T> work) {
+        return Mono.fromSupplier(System::nanoTime).flatMap(start -> work
+                        .doOnError(error -> {
+                            metrics.recordError(error);
+                            logError(error);
+                        })
+                        .doFinally(signal -> metrics.record(start)))
+                .toFuture();
+    }
+
+    private static void logError(Throwable error) {
+        if (error instanceof R2dbcDataIntegrityViolationException) {
+            logger.error("Constraint violation: {}", error.getMessage());
+        } else {
+            logger.error("R2DBC error: {}", error.getMessage());
+        }
+    }
+
+    private static <T> void bind(Statement statement, int index, T value, Class<T> type) {
+        if (value == null) {
+            statement.bindNull(index, type);
+        } else {
+            statement.bind(index, value);
+        }
+    }
+
+    private static User toUser(Row row, RowMetadata metadata) {
+        User user = new User(row.get("name", String.class), row.get("email", String.class), row.get("age", Integer.class));
+        user.setId(row.get("id", Long.class));
+        user.setCreatedAt(row.get("created_at", LocalDateTime.class));
+        user.setVersion(row.get("version", Long.class));
+        return user;
+    }
+
+    private void remember(String email) {
+        EmailFilter filter = emailFilter;
+        if (filter != null && email != null) {
+            filter.add(email);
+        }
+    }
+
+    // Строка изменена в обход Hibernate: убираем ее из кэша второго уровня, как это делает bulk UPDATE/DELETE.
+    // Пока Hibernate не запущен, кэша нет и убирать нечего
+    private static void evict(int shard, long id, boolean naturalId) {
+        if (!HibernateUtil.isReady()) {
+            return;
+        }
+        Cache cache = HibernateUtil.getSessionFactory(shard).getCache();
+        cache.evictEntityData(User.class, id);
+        if (naturalId) {
+            cache.evictNaturalIdData(User.class);
+        }
+    }
+
+    // Те же 7 форм частичного UPDATE, что User.update.N / User.updateVersioned.N
+    private static String[][] updateSql() {
+        String[][] sql = new String[2][8];
+        for (int shape = 1; shape < 8; shape++) {
+            for (int versioned = 0; versioned < 2; versioned++) {
+                StringBuilder update = new StringBuilder("UPDATE user_table SET ");
+                int index = 1;
+                if ((shape & 1) != 0) {
+                    update.append("name = $").append(index++).append(", ");
+                }
+                if ((shape & 2) != 0) {
+                    update.append("email = $").append(index++).append(", ");
+                }
+                if ((shape & 4) != 0) {
+                    update.append("age = $").append(index++).append(", ");
+                }
+                update.append("version = version + 1 WHERE id = $").append(index++);
+                if (versioned == 1) {
+                    update.append(" AND version = $").append(index);
+                }
+                sql[versioned][shape] = update.toString();
+            }
+        }
+        return sql;
+    }
+
+    @Override
+    public void close() {
+        for (Shard shard : shards) {
+            shard.close();
+        }
+    }
+
+    private static final class Shard {
+        // Общие соединения для точечных запросов; сломанное соединение открывается заново при следующем запросе
+        private final List<Mono<SharedConnection>> connections;
+        private final AtomicInteger next = new AtomicInteger();
+        private final Queue<Connection> opened = new ConcurrentLinkedQueue<>();
+        // Курсор занимает соединение целиком, поэтому потоки читаются на соединениях из пула
+        private final ConnectionPool streams;
+
+        Shard(PostgresqlConnectionFactory factory, int size) {
+            List<Mono<SharedConnection>> connections = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                connections.add(Mono.from(factory.create())
+                        .doOnNext(opened::add)
+                        .map(SharedConnection::new)
+                        .cacheInvalidateIf(connection -> connection.broken));
+            }
+            this.connections = List.copyOf(connections);
+            this.streams = new ConnectionPool(ConnectionPoolConfiguration.builder(factory)
+                    .initialSize(0)
+                    .maxSize(size)
+                    .maxIdleTime(Duration.ofMinutes(5))
+                    .build());
+        }
+
+        <T> Mono<T> withConnection(Function<Connection, Mono<T>> work) {
+            Mono<SharedConnection> connection = connections.get(Math.floorMod(next.getAndIncrement(), connections.size()));
+            return connection.flatMap(shared -> work.apply(shared.connection).doOnError(error -> {
+                if (error instanceof R2dbcNonTransientResourceException && !shared.broken) {
+                    shared.broken = true;
+                    opened.remove(shared.connection);
+                    Mono.from(shared.connection.close()).subscribe(null, ignored -> { });
+                }
+            }));
+        }
+
+        <T> Flux<T> stream(Function<Connection, Flux<T>> work) {
+            return Flux.usingWhen(streams.create(), work, Connection::close);
+        }
+
+        void close() {
+            List<Mono<Void>> closing = new ArrayList<>();
+            for (Connection connection : opened) {
+                closing.add(Mono.from(connection.close()).onErrorResume(error -> Mono.empty()));
+            }
+            opened.clear();
+            closing.add(streams.disposeLater());
+            Mono.when(closing).block(Duration.ofSeconds(10));
+        }
+    }
+
+    private static final class SharedConnection {
+        final Connection connection;
+        volatile boolean broken;
+
+        SharedConnection(Connection connection) {
+            this.connection = connection;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.example.dao;
+
+public enum UpdateResult {
+    UPDATED,
+    NOT_FOUND,
+    // Запись изменена другим клиентом: версия не совпала с ожидаемой
+    VERSION_CONFLICT,
+    NO_CHANGES,
+    FAILED
+}
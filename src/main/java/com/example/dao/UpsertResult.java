@@ -0,0 +1,45 @@
+package com.example.dao;
+
+// Итог upsert одной строки. id - строка с этим email после операции (null только при FAILED)
+public class UpsertResult {
+
+    public enum Status {
+        INSERTED,
+        UPDATED,
+        // Строка с этим email уже была и не отличалась (или updateExisting = false)
+        UNCHANGED,
+        FAILED
+    }
+
+    private final Status status;
+    private final Long id;
+    private final String reason;
+
+    private UpsertResult(Status status, Long id, String reason) {
+        this.status = status;
+        this.id = id;
+        this.reason = reason;
+    }
+
+    static UpsertResult of(Status status, Long id) {
+        return new UpsertResult(status, id, null);
+    }
+
+    static UpsertResult failed(String reason) {
+        return new UpsertResult(Status.FAILED, null, reason);
+    }
+
+    public Status getStatus() { return status; }
+
+    public Long getId() { return id; }
+
+    // Причина отказа, только для FAILED
+    public String getReason() { return reason; }
+
+    @Override
+    public String toString() {
+        return status == Status.FAILED
+                ? String.format("[Upsert INFO] FAILED: %s", reason)
+                : String.format("[Upsert INFO] %s, id = %d", status, id);
+    }
+}
@@ -1,210 +1,1518 @@
 package com.example.dao;
 
-import com.example.Main;
+import com.example.EmailValidator;
 import com.example.entity.User;
+import com.example.metrics.DaoMetrics;
+import com.example.metrics.OperationMetrics;
 import com.example.util.HibernateUtil;
+import com.example.util.ReplicaRouting;
+import com.example.util.Shards;
+import org.hibernate.Cache;
+import org.hibernate.CacheMode;
 import org.hibernate.HibernateException;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
 import org.hibernate.Transaction;
 import org.hibernate.query.Query;
+import org.hibernate.engine.spi.SessionImplementor;
 import org.hibernate.exception.ConstraintViolationException;
+import org.hibernate.id.IdentifierGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
 
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Order;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class UserDAO {
     private static final Logger logger = LoggerFactory.getLogger(UserDAO.class);
+    private static final int STREAM_FETCH_SIZE = 500;
+    // Размер IN-списка для multi-load, поиска по email и удаления пачкой (с padding - до 512)
+    private static final int IN_CHUNK_SIZE = 500;
+    // Именованные запросы объявлены в com.example.entity (package-info) и проверяются при старте
+    private static final String[][] UPDATE_QUERIES = updateQueryNames();
+    private static final String UPSERT_UPDATE_SQL = upsertSql("DO UPDATE SET name = EXCLUDED.name, age = EXCLUDED.age,"
+            + " version = u.version + 1 WHERE (u.name, u.age) IS DISTINCT FROM (EXCLUDED.name, EXCLUDED.age)");
+    private static final String UPSERT_KEEP_SQL = upsertSql("DO NOTHING");
+
+    private static final OperationMetrics CREATE = DaoMetrics.operation("createUser");
+    private static final OperationMetrics CREATE_BULK = DaoMetrics.operation("createUsers");
+    private static final OperationMetrics GET_BY_ID = DaoMetrics.operation("getUserById");
+    private static final OperationMetrics GET_BY_EMAIL = DaoMetrics.operation("getUserByEmail");
+    private static final OperationMetrics GET_ALL = DaoMetrics.operation("getAllUsers");
+    private static final OperationMetrics GET_PAGE = DaoMetrics.operation("getUsersPage");
+    private static final OperationMetrics STREAM = DaoMetrics.operation("streamAllUsers");
+    private static final OperationMetrics UPDATE = DaoMetrics.operation("updateUser");
+    private static final OperationMetrics DELETE = DaoMetrics.operation("deleteUser");
+    private static final OperationMetrics GET_BY_IDS = DaoMetrics.operation("getUsersByIds");
+    private static final OperationMetrics GET_BY_EMAILS = DaoMetrics.operation("getUsersByEmails");
+    private static final OperationMetrics DELETE_BULK = DaoMetrics.operation("deleteUsers");
+    private static final OperationMetrics SEARCH = DaoMetrics.operation("searchUsers");
+    private static final OperationMetrics COUNT = DaoMetrics.operation("countUsers");
+    private static final OperationMetrics AGE_SUMMARY = DaoMetrics.operation("getAgeSummary");
+    private static final OperationMetrics AGE_BUCKETS = DaoMetrics.operation("countByAgeBucket");
+    private static final OperationMetrics SIGNUPS = DaoMetrics.operation("signupsPerDay");
+    private static final OperationMetrics STATS = DaoMetrics.operation("loadStats");
+    private static final OperationMetrics GET_VIEW_BY_ID = DaoMetrics.operation("getUserViewById");
+    private static final OperationMetrics GET_VIEW_BY_EMAIL = DaoMetrics.operation("getUserViewByEmail");
+    private static final OperationMetrics STREAM_VIEWS = DaoMetrics.operation("streamAllUserViews");
+    private static final OperationMetrics UPSERT = DaoMetrics.operation("upsertUser");
+    private static final OperationMetrics UPSERT_BULK = DaoMetrics.operation("upsertUsers");
+    private static final OperationMetrics SCAN_EMAILS = DaoMetrics.operation("scanEmails");
+
+    // Фильтр Блума по email, null - не включен
+    private volatile EmailFilter emailFilter;
+
+    void setEmailFilter(EmailFilter emailFilter) {
+        this.emailFilter = emailFilter;
+    }
 
     public Optional<Long> createUser(User user) {
         logger.debug("createUser DAO start...");
-        Session session = HibernateUtil.getSessionFactory().openSession();
-        Transaction transaction = null;
-        Long userId = null;
+        // Строка пишется на шард своего email, id выдает sequence этого шарда
+        return write(CREATE, Shards.shardOfEmail(user.getEmail()),
+                session -> {
+                    remember(session, List.of(user));
+                    return Optional.of((Long) session.save(user));
+                }, Optional.empty());
+    }
 
+    public BulkImportResult createUsers(Iterable<User> users) {
+        return createUsers(users, HibernateUtil.getJdbcBatchSize());
+    }
+
+    public BulkImportResult createUsers(Iterable<User> users, int chunkSize) {
+        logger.debug("createUsers DAO start, chunkSize = {}", chunkSize);
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        BulkImportResult result = new BulkImportResult();
+        // Чанки копятся по шардам: каждый чанк - один batch INSERT в БД своего шарда
+        ShardChunk[] chunks = new ShardChunk[Shards.count()];
+        int row = 0;
+        try {
+            for (User user : users) {
+                int shard = Shards.shardOfEmail(user.getEmail());
+                if (chunks[shard] == null) {
+                    chunks[shard] = new ShardChunk(shard, chunkSize);
+                }
+                ShardChunk chunk = chunks[shard];
+                chunk.add(user, row++);
+                if (chunk.users.size() == chunkSize) {
+                    insertChunk(chunk, result);
+                }
+            }
+            for (ShardChunk chunk : chunks) {
+                if (chunk != null && !chunk.users.isEmpty()) {
+                    insertChunk(chunk, result);
+                }
+            }
+        } finally {
+            for (ShardChunk chunk : chunks) {
+                if (chunk != null && chunk.session != null) {
+                    chunk.session.close();
+                }
+            }
+        }
+        logger.debug("createUsers DAO finished: {}", result);
+        return result;
+    }
+
+    // Накопленные для одного шарда строки и номера этих строк во входных данных
+    private static final class ShardChunk {
+        final int shard;
+        final List<User> users;
+        final int[] rows;
+        Session session;
+
+        ShardChunk(int shard, int chunkSize) {
+            this.shard = shard;
+            this.users = new ArrayList<>(chunkSize);
+            this.rows = new int[chunkSize];
+        }
+
+        void add(User user, int row) {
+            rows[users.size()] = row;
+            users.add(user);
+        }
+    }
+
+    // Время createUsers учитывается по чанкам
+    private void insertChunk(ShardChunk shardChunk, BulkImportResult result) {
+        long start = System.nanoTime();
+        if (shardChunk.session == null) {
+            shardChunk.session = openBatchSession(shardChunk.shard, shardChunk.rows.length);
+        }
+        Session session = shardChunk.session;
+        List<User> chunk = shardChunk.users;
+        int[] rows = shardChunk.rows;
+        Transaction transaction = null;
+        List<User> accepted = new ArrayList<>(chunk.size());
+        Set<Integer> rejected = new HashSet<>();
         try {
             transaction = session.beginTransaction();
-            userId = (Long) session.save(user);
-            transaction.commit();
-            return Optional.of(userId);
 
-        } catch (ConstraintViolationException e) {
-            if (transaction != null) {
-                transaction.rollback();
+            // Невалидные и повторяющиеся email отсекаем заранее, чтобы не ронять весь batch.
+            // Одинаковые email всегда попадают на один шард, поэтому проверки по шарду достаточно
+            Set<String> taken = findExistingEmails(session, chunk);
+            for (int i = 0; i < chunk.size(); i++) {
+                User user = chunk.get(i);
+                if (user.getEmail() != null && !EmailValidator.isValid(user.getEmail())) {
+                    result.addFailure(rows[i], user.getEmail(), "invalid email");
+                    rejected.add(i);
+                } else if (user.getEmail() != null && !taken.add(user.getEmail())) {
+                    result.addFailure(rows[i], user.getEmail(), "duplicate email");
+                    rejected.add(i);
+                } else {
+                    session.persist(user);
+                    accepted.add(user);
+                }
             }
-            logger.error(RED+"Constraint violation: {}" + RESET);
-            return Optional.empty();
+            remember(session, accepted);
 
-        } catch (HibernateException e) {
-            if (transaction != null) {
-                transaction.rollback();
+            session.flush();
+            transaction.commit();
+            ReplicaRouting.recordWrite();
+            session.clear();
+            for (User user : accepted) {
+                result.addCreated(user.getId());
             }
-            logger.error(RED+"Hibernate error: {}", e.getMessage()+RESET);
-            return Optional.empty();
 
-        } catch (Exception e) {
-            if (transaction != null) {
+        } catch (HibernateException e) {
+            if (transaction != null && transaction.isActive()) {
                 transaction.rollback();
             }
-            logger.error(RED + "Unexpected error: {}", e.getMessage() + RESET);
-            return Optional.empty();
+            CREATE_BULK.recordError(e);
+            logger.debug("Chunk at row {} failed, retrying row by row: {}", rows[0], e.getMessage());
+            session.close();
+            shardChunk.session = null;
+            // id, выданные в откаченной транзакции, недействительны (в том числе у упавшей строки)
+            for (int i = 0; i < chunk.size(); i++) {
+                if (!rejected.contains(i)) {
+                    chunk.get(i).setId(null);
+                }
+            }
+            insertRowByRow(shardChunk.shard, chunk, rows, rejected, result);
+        } finally {
+            chunk.clear();
+            CREATE_BULK.record(start);
+        }
+    }
 
+    private void insertRowByRow(int shard, List<User> chunk, int[] rows, Set<Integer> rejected,
+                                BulkImportResult result) {
+        Session session = openBatchSession(shard, 1);
+        try {
+            for (int i = 0; i < chunk.size(); i++) {
+                if (rejected.contains(i)) {
+                    continue;
+                }
+                User user = chunk.get(i);
+                Transaction transaction = null;
+                try {
+                    transaction = session.beginTransaction();
+                    session.persist(user);
+                    remember(session, List.of(user));
+                    session.flush();
+                    transaction.commit();
+                    ReplicaRouting.recordWrite();
+                    session.clear();
+                    result.addCreated(user.getId());
+                } catch (HibernateException e) {
+                    if (transaction != null && transaction.isActive()) {
+                        transaction.rollback();
+                    }
+                    user.setId(null);
+                    CREATE_BULK.recordError(e);
+                    String reason = e instanceof ConstraintViolationException
+                            ? "constraint violation: " + ((ConstraintViolationException) e).getConstraintName()
+                            : e.getMessage();
+                    result.addFailure(rows[i], user.getEmail(), reason);
+                    // После ошибки сессия непригодна, открываем новую
+                    session.close();
+                    session = openBatchSession(shard, 1);
+                }
+            }
         } finally {
             session.close();
         }
     }
 
+    private Set<String> findExistingEmails(Session session, List<User> chunk) {
+        Set<String> emails = new HashSet<>();
+        for (User user : chunk) {
+            if (user.getEmail() != null) {
+                emails.add(user.getEmail());
+            }
+        }
+        if (emails.isEmpty()) {
+            return new HashSet<>();
+        }
+        Query<String> query = session.createNamedQuery("User.existingEmails", String.class);
+        query.setParameterList("emails", emails);
+        return new HashSet<>(query.list());
+    }
+
+    private Session openBatchSession(int shard, int batchSize) {
+        Session session = HibernateUtil.getSessionFactory(shard).openSession();
+        session.setJdbcBatchSize(batchSize);
+        return session;
+    }
+
+    // Upsert по email без исключений на обычном пути: новая строка вставляется, у существующей
+    // обновляются name и age, если они отличаются (updateExisting = false - существующая не трогается).
+    // Один INSERT ... ON CONFLICT на пачку: конфликт по email разрешает сам PostgreSQL,
+    // без ConstraintViolationException, отката и повтора
+    public UpsertResult upsertUser(User user) {
+        return upsertUser(user, true);
+    }
+
+    public UpsertResult upsertUser(User user, boolean updateExisting) {
+        logger.debug("upsertUser start...");
+        return upsert(UPSERT, List.of(user), updateExisting).get(0);
+    }
+
+    public List<UpsertResult> upsertUsers(Iterable<User> users) {
+        return upsertUsers(users, true);
+    }
+
+    // Результаты в порядке входных строк. Повтор email внутри пачки - FAILED (как в createUsers),
+    // иначе исход зависел бы от порядка строк
+    public List<UpsertResult> upsertUsers(Iterable<User> users, boolean updateExisting) {
+        List<User> rows = new ArrayList<>();
+        users.forEach(rows::add);
+        logger.debug("upsertUsers start, {} users", rows.size());
+        return upsert(UPSERT_BULK, rows, updateExisting);
+    }
+
+    private List<UpsertResult> upsert(OperationMetrics metrics, List<User> users, boolean updateExisting) {
+        UpsertResult[] results = new UpsertResult[users.size()];
+        Map<Integer, List<Integer>> byShard = new TreeMap<>();
+        Set<String> emails = new HashSet<>();
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            if (user.getEmail() == null || !EmailValidator.isValid(user.getEmail())) {
+                results[i] = UpsertResult.failed("invalid email");
+            } else if (user.getName() == null || user.getName().isEmpty()) {
+                results[i] = UpsertResult.failed("name is required");
+            } else if (!emails.add(user.getEmail())) {
+                results[i] = UpsertResult.failed("duplicate email");
+            } else {
+                byShard.computeIfAbsent(Shards.shardOfEmail(user.getEmail()), key -> new ArrayList<>()).add(i);
+            }
+        }
+        byShard.forEach((shard, rows) -> {
+            for (List<Integer> chunk : chunks(rows)) {
+                upsertChunk(metrics, shard, users, chunk, updateExisting, results);
+            }
+        });
+        return Arrays.asList(results);
+    }
+
+    // Чанк - одна транзакция. Если БД отвергла чанк (например, слишком длинное имя), строки
+    // повторяются по одной, чтобы ошибка досталась только своей строке
+    private void upsertChunk(OperationMetrics metrics, int shard, List<User> users, List<Integer> rows,
+                             boolean updateExisting, UpsertResult[] results) {
+        List<User> chunk = new ArrayList<>(rows.size());
+        for (int row : rows) {
+            chunk.add(users.get(row));
+        }
+        Map<String, UpsertResult> written = write(metrics, shard, session -> {
+            remember(session, chunk);
+            return upsert(session, chunk, updateExisting);
+        }, null);
+        if (written == null && rows.size() > 1) {
+            for (int row : rows) {
+                upsertChunk(metrics, shard, users, List.of(row), updateExisting, results);
+            }
+            return;
+        }
+        for (int i = 0; i < rows.size(); i++) {
+            results[rows.get(i)] = written == null
+                    ? UpsertResult.failed("rejected by database")
+                    : written.get(chunk.get(i).getEmail());
+        }
+    }
+
+    // id новым строкам выдает генератор сущности (пул sequence шарда), без обращения к БД на каждую строку;
+    // при конфликте выданный id просто не используется. Строка, чей id вернулся, вставлена,
+    // остальные вернувшиеся - обновлены, а невернувшиеся (без изменений) дочитываются по email
+    // в том же запросе. UPDATE увеличивает version, как обновления через Hibernate
+    private Map<String, UpsertResult> upsert(Session session, List<User> users, boolean updateExisting) {
+        SessionImplementor implementor = (SessionImplementor) session;
+        IdentifierGenerator generator = implementor.getFactory().getMetamodel()
+                .entityPersister(User.class).getIdentifierGenerator();
+        List<Long> ids = new ArrayList<>(users.size());
+        List<String> names = new ArrayList<>(users.size());
+        List<String> emails = new ArrayList<>(users.size());
+        List<Integer> ages = new ArrayList<>(users.size());
+        List<LocalDateTime> createdAt = new ArrayList<>(users.size());
+        for (User user : users) {
+            ids.add((Long) generator.generate(implementor, user));
+            names.add(user.getName());
+            emails.add(user.getEmail());
+            ages.add(user.getAge());
+            createdAt.add(user.getCreatedAt() != null ? user.getCreatedAt() : LocalDateTime.now());
+        }
+
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = session.createNativeQuery(updateExisting ? UPSERT_UPDATE_SQL : UPSERT_KEEP_SQL)
+                .setParameter("ids", toArrayLiteral(ids))
+                .setParameter("names", toArrayLiteral(names))
+                .setParameter("emails", toArrayLiteral(emails))
+                .setParameter("ages", toArrayLiteral(ages))
+                .setParameter("createdAt", toArrayLiteral(createdAt))
+                .getResultList();
+
+        Set<Long> generated = new HashSet<>(ids);
+        Cache cache = session.getSessionFactory().getCache();
+        Map<String, UpsertResult> results = new HashMap<>(users.size() * 2);
+        for (Object[] row : rows) {
+            long id = ((Number) row[0]).longValue();
+            UpsertResult.Status status;
+            if (!(Boolean) row[2]) {
+                status = UpsertResult.Status.UNCHANGED;
+            } else if (generated.contains(id)) {
+                status = UpsertResult.Status.INSERTED;
+            } else {
+                status = UpsertResult.Status.UPDATED;
+                // Native-запрос кэш второго уровня не обновляет
+                cache.evictEntityData(User.class, id);
+            }
+            results.put((String) row[1], UpsertResult.of(status, id));
+        }
+        if (results.size() < users.size()) {
+            // Строку вставили параллельно уже после снимка запроса: ON CONFLICT ее увидел, SELECT - нет
+            List<String> missing = new ArrayList<>();
+            for (String email : emails) {
+                if (!results.containsKey(email)) {
+                    missing.add(email);
+                }
+            }
+            @SuppressWarnings("unchecked")
+            List<Object[]> existing = session.createNativeQuery(
+                            "SELECT u.id, u.email FROM user_table u WHERE u.email = ANY(CAST(:emails AS varchar[]))")
+                    .setParameter("emails", toArrayLiteral(missing))
+                    .getResultList();
+            for (Object[] row : existing) {
+                results.put((String) row[1], UpsertResult.of(UpsertResult.Status.UNCHANGED, ((Number) row[0]).longValue()));
+            }
+        }
+        return results;
+    }
+
+    private static String upsertSql(String onConflict) {
+        return "WITH input (id, name, email, age, created_at) AS ("
+                + " SELECT * FROM unnest(CAST(:ids AS bigint[]), CAST(:names AS varchar[]),"
+                + " CAST(:emails AS varchar[]), CAST(:ages AS int[]), CAST(:createdAt AS timestamp[]))"
+                + "), written AS ("
+                + " INSERT INTO user_table AS u (id, name, email, age, created_at, version)"
+                + " SELECT id, name, email, age, created_at, 0 FROM input"
+                + " ON CONFLICT (email) " + onConflict
+                + " RETURNING u.id, u.email"
+                + ")"
+                + " SELECT w.id, w.email, true FROM written w"
+                + " UNION ALL"
+                + " SELECT u.id, u.email, false FROM user_table u"
+                + " WHERE u.email = ANY(CAST(:emails AS varchar[])) AND u.email NOT IN (SELECT email FROM written)";
+    }
+
     public Optional<User> getUserById(Long id) {
         logger.debug("getUserById start...");
-        Session session = HibernateUtil.getSessionFactory().openSession();
-        try {
-            User user = session.get(User.class, id);
-            return Optional.ofNullable(user);
-        } catch (HibernateException e) {
-            logger.error(RED + "Hibernate error: {}", e.getMessage()+RESET);
+        int shard = shardOf(id);
+        if (shard < 0) {
             return Optional.empty();
+        }
+        return read(GET_BY_ID, shard, session -> Optional.ofNullable(session.get(User.class, id)), Optional.empty());
+    }
+
+    // Шард по старшим битам id, -1 - id не может существовать ни на одном шарде.
+    // null уходит на шард 0, дальше его отвергнет сам Hibernate, как и без шардирования
+    private static int shardOf(Long id) {
+        return id == null ? 0 : Shards.shardOfId(id);
+    }
+
+    // Только для показа: без managed-сущности и ее снимка. Если пользователь есть в кэше второго уровня,
+    // он берется оттуда read-only (снимок не делается), иначе в память приходят только колонки UserView
+    public Optional<UserView> getUserViewById(Long id) {
+        logger.debug("getUserViewById start...");
+        int shard = shardOf(id);
+        if (shard < 0) {
+            return Optional.empty();
+        }
+        return read(GET_VIEW_BY_ID, shard, session -> {
+            if (session.getSessionFactory().getCache().containsEntity(User.class, id)) {
+                return readOnly(session, () -> Optional.ofNullable(session.get(User.class, id)).map(UserView::of));
+            }
+            return session.createNamedQuery("UserView.byId", UserView.class)
+                    .setParameter("id", id)
+                    .uniqueResultOptional();
+        }, Optional.empty());
+    }
+
+    // Read-only сущности Hibernate не снимает снимок для dirty checking. Сессия может быть
+    // общей (inTransaction), поэтому режим по умолчанию возвращается как был
+    private static <T> T readOnly(Session session, Supplier<T> work) {
+        boolean readOnly = session.isDefaultReadOnly();
+        session.setDefaultReadOnly(true);
+        try {
+            return work.get();
         } finally {
-            session.close();
+            session.setDefaultReadOnly(readOnly);
+        }
+    }
+
+    // Пользователи с данными id в порядке их первого появления во входной коллекции,
+    // несуществующие id пропускаются. Есть в кэше второго уровня - берем оттуда
+    // (multi-load в Hibernate 5 кэш не проверяет), остальные грузим пачками по IN_CHUNK_SIZE.
+    // При нескольких шардах каждый шард получает только свои id, шарды читаются параллельно
+    public List<User> getUsersByIds(Collection<Long> ids) {
+        logger.debug("getUsersByIds start, {} ids", ids.size());
+        if (ids.isEmpty()) {
+            return List.of();
         }
+        List<Long> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        Map<Integer, List<Long>> byShard = groupByShard(distinct, UserDAO::shardOf);
+        return readShards(GET_BY_IDS, byShard.keySet(), (shard, session) -> loadByIds(session, byShard.get(shard)),
+                parts -> parts.size() == 1 ? parts.get(0) : inOrder(distinct, parts), List.of());
+    }
+
+    // Пользователи с каждого шарда уже в порядке своих id, здесь - общий порядок входных id
+    private static List<User> inOrder(List<Long> ids, List<List<User>> parts) {
+        Map<Long, User> found = new HashMap<>(ids.size() * 2);
+        for (List<User> part : parts) {
+            for (User user : part) {
+                found.put(user.getId(), user);
+            }
+        }
+        List<User> users = new ArrayList<>(found.size());
+        for (Long id : ids) {
+            User user = found.get(id);
+            if (user != null) {
+                users.add(user);
+            }
+        }
+        return users;
+    }
+
+    // Значения по шардам в порядке номера шарда; значения без шарда (-1) отбрасываются
+    private static <T> Map<Integer, List<T>> groupByShard(Collection<T> values, ToIntFunction<T> shardOf) {
+        Map<Integer, List<T>> byShard = new TreeMap<>();
+        for (T value : values) {
+            int shard = shardOf.applyAsInt(value);
+            if (shard >= 0) {
+                byShard.computeIfAbsent(shard, key -> new ArrayList<>()).add(value);
+            }
+        }
+        return byShard;
+    }
+
+    private List<User> loadByIds(Session session, List<Long> ids) {
+        Cache cache = session.getSessionFactory().getCache();
+        Map<Long, User> found = new HashMap<>(ids.size() * 2);
+        List<Long> missing = new ArrayList<>();
+        for (Long id : ids) {
+            if (cache.containsEntity(User.class, id)) {
+                User user = session.get(User.class, id);
+                if (user != null) {
+                    found.put(id, user);
+                }
+            } else {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (User user : session.byMultipleIds(User.class)
+                    .withBatchSize(IN_CHUNK_SIZE)
+                    .multiLoad(missing)) {
+                if (user != null) {
+                    found.put(user.getId(), user);
+                }
+            }
+        }
+        List<User> users = new ArrayList<>(found.size());
+        for (Long id : ids) {
+            User user = found.get(id);
+            if (user != null) {
+                users.add(user);
+            }
+        }
+        return users;
+    }
+
+    // Поиск пачкой по email одним запросом, порядок результата не гарантируется.
+    // Список email передается одним параметром-массивом (= ANY), а не IN (?, ?, ...):
+    // план один на любой размер, а IN из сотни varchar-параметров PostgreSQL
+    // каждый раз перепланирует (на 100 email это в 3-5 раз медленнее)
+    public List<User> getUsersByEmails(Collection<String> emails) {
+        logger.debug("getUsersByEmails start, {} emails", emails.size());
+        Set<String> candidates = new LinkedHashSet<>(emails);
+        candidates.removeIf(this::definitelyAbsent);
+        if (candidates.isEmpty()) {
+            return List.of();
+        }
+        Map<Integer, List<String>> byShard = groupByShard(candidates, Shards::shardOfEmail);
+        return readShards(GET_BY_EMAILS, byShard.keySet(), (shard, session) -> {
+            // Сначала только id по индексу email, сами строки - из кэша второго уровня или multi-load
+            List<?> rows = session.createNativeQuery(
+                            "SELECT u.id FROM user_table u WHERE u.email = ANY(CAST(:emails AS varchar[]))")
+                    .setParameter("emails", toArrayLiteral(byShard.get(shard)))
+                    .list();
+            List<Long> ids = new ArrayList<>(rows.size());
+            for (Object id : rows) {
+                ids.add(((Number) id).longValue());
+            }
+            return loadByIds(session, ids);
+        }, UserDAO::concat, List.of());
+    }
+
+    private static <T> List<T> concat(List<List<T>> parts) {
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        List<T> all = new ArrayList<>(parts.stream().mapToInt(List::size).sum());
+        parts.forEach(all::addAll);
+        return all;
+    }
+
+    // Литерал массива PostgreSQL: {"a@x.com","b@x.com",NULL}
+    private static String toArrayLiteral(Collection<?> values) {
+        StringBuilder literal = new StringBuilder(values.size() * 32).append('{');
+        for (Object element : values) {
+            if (literal.length() > 1) {
+                literal.append(',');
+            }
+            if (element == null) {
+                literal.append("NULL");
+                continue;
+            }
+            String value = element.toString();
+            literal.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    literal.append('\\');
+                }
+                literal.append(c);
+            }
+            literal.append('"');
+        }
+        return literal.append('}').toString();
     }
 
     public List<User> getAllUsers() {
         logger.debug("getAllUsers start...");
-        Session session = HibernateUtil.getSessionFactory().openSession();
-        try {
-            Query<User> query = session.createQuery("FROM User", User.class);
-            return query.list();
-        } catch (HibernateException e) {
-            logger.error(RED + "Hibernate error: {}", e.getMessage() + RESET);
+        return readShards(GET_ALL, allShards(),
+                (shard, session) -> session.createNamedQuery("User.all", User.class).list(), UserDAO::concat, List.of());
+    }
+
+    // Keyset-пагинация: следующая страница после afterId (null - с начала таблицы).
+    // Диапазоны id шардов идут подряд, поэтому страница читается с шарда afterId и, если там
+    // строки кончились, со следующих шардов по порядку - обычно это один запрос к одному шарду.
+    // Пустая страница - только конец данных: ошибка чтения бросается HibernateException, иначе
+    // выгрузка "до пустой страницы" молча остановилась бы на середине
+    public List<User> getUsersPage(Long afterId, int limit) {
+        logger.debug("getUsersPage start, afterId = {}", afterId);
+        // setMaxResults(0) в Hibernate 5 означает "без ограничения"
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        int first = afterId == null ? 0 : Shards.shardOfId(afterId);
+        if (first < 0) {
             return List.of();
-        } finally {
-            session.close();
         }
+        List<User> page = new ArrayList<>();
+        for (int shard = first; shard < Shards.count() && page.size() < limit; shard++) {
+            long after = shard == first && afterId != null ? afterId : 0L;
+            int remaining = limit - page.size();
+            List<User> part = read(GET_PAGE, shard, session -> session.createNamedQuery("User.page", User.class)
+                    .setParameter("afterId", after)
+                    .setMaxResults(remaining)
+                    .setReadOnly(true)
+                    .list(), null);
+            if (part == null) {
+                throw new HibernateException("Page after id " + afterId + " could not be read from shard " + shard);
+            }
+            page.addAll(part);
+        }
+        return page;
     }
 
-    public boolean updateUser(Long id, String name, String email, Integer age) {
-        logger.debug("updateUser start...");
-        Session session = HibernateUtil.getSessionFactory().openSession();
-        Transaction transaction = null;
+    // Поиск по фильтрам UserSearchCriteria, у каждого фильтра свой индекс (миграция V3).
+    // id - последний ключ сортировки, чтобы страницы с offset не теряли и не повторяли строки.
+    // При нескольких шардах каждый шард отдает первые offset + limit строк, страница собирается
+    // из них сортировкой в памяти (строки сравниваются String.compareTo, как при COLLATE "C")
+    public List<User> searchUsers(UserSearchCriteria criteria) {
+        logger.debug("searchUsers start...");
+        if (Shards.count() == 1) {
+            return read(SEARCH, 0, session -> search(session, criteria, criteria.getOffset(), criteria.getLimit()),
+                    List.of());
+        }
+        int rows = criteria.getOffset() + criteria.getLimit();
+        return readShards(SEARCH, allShards(), (shard, session) -> search(session, criteria, 0, rows),
+                parts -> parts.stream()
+                        .flatMap(List::stream)
+                        .sorted(searchOrder(criteria))
+                        .skip(criteria.getOffset())
+                        .limit(criteria.getLimit())
+                        .collect(Collectors.toList()), List.of());
+    }
 
-        try {
-            transaction = session.beginTransaction();
+    private static List<User> search(Session session, UserSearchCriteria criteria, int firstResult, int maxResults) {
+        CriteriaBuilder cb = session.getCriteriaBuilder();
+        CriteriaQuery<User> query = cb.createQuery(User.class);
+        Root<User> user = query.from(User.class);
+        query.select(user).where(searchPredicates(cb, user, criteria));
+
+        List<Order> order = new ArrayList<>(2);
+        order.add(sortOrder(cb, user.get(criteria.getSortBy().getAttribute()), criteria.isDescending()));
+        if (criteria.getSortBy() != UserSearchCriteria.SortField.ID) {
+            order.add(sortOrder(cb, user.get("id"), criteria.isDescending()));
+        }
+        query.orderBy(order);
+
+        return session.createQuery(query)
+                .setFirstResult(firstResult)
+                .setMaxResults(maxResults)
+                .setReadOnly(true)
+                .list();
+    }
+
+    // Порядок ORDER BY из search: NULL в PostgreSQL больше любого значения (последние при ASC, первые при DESC)
+    private static Comparator<User> searchOrder(UserSearchCriteria criteria) {
+        Comparator<User> order;
+        switch (criteria.getSortBy()) {
+            case NAME:
+                order = Comparator.comparing(User::getName, Comparator.nullsLast(Comparator.<String>naturalOrder()));
+                break;
+            case EMAIL:
+                order = Comparator.comparing(User::getEmail, Comparator.nullsLast(Comparator.<String>naturalOrder()));
+                break;
+            case AGE:
+                order = Comparator.comparing(User::getAge, Comparator.nullsLast(Comparator.<Integer>naturalOrder()));
+                break;
+            case CREATED_AT:
+                order = Comparator.comparing(User::getCreatedAt,
+                        Comparator.nullsLast(Comparator.<LocalDateTime>naturalOrder()));
+                break;
+            default:
+                order = (a, b) -> 0;
+        }
+        order = order.thenComparing(User::getId);
+        return criteria.isDescending() ? order.reversed() : order;
+    }
+
+    private static Predicate[] searchPredicates(CriteriaBuilder cb, Root<User> user, UserSearchCriteria criteria) {
+        List<Predicate> predicates = new ArrayList<>();
+        if (criteria.getNamePrefix() != null && !criteria.getNamePrefix().isEmpty()) {
+            predicates.add(cb.like(user.get("name"), escapeLike(criteria.getNamePrefix()) + "%", '\\'));
+        }
+        if (criteria.getEmail() != null && !criteria.getEmail().isEmpty()) {
+            // Та же форма выражения, что в индексе idx_user_table_email_lower
+            predicates.add(cb.equal(cb.lower(user.get("email")), criteria.getEmail().toLowerCase(Locale.ROOT)));
+        }
+        if (criteria.getMinAge() != null) {
+            predicates.add(cb.greaterThanOrEqualTo(user.get("age"), criteria.getMinAge()));
+        }
+        if (criteria.getMaxAge() != null) {
+            predicates.add(cb.lessThanOrEqualTo(user.get("age"), criteria.getMaxAge()));
+        }
+        if (criteria.getCreatedFrom() != null) {
+            predicates.add(cb.greaterThanOrEqualTo(user.get("createdAt"), criteria.getCreatedFrom()));
+        }
+        if (criteria.getCreatedTo() != null) {
+            predicates.add(cb.lessThan(user.get("createdAt"), criteria.getCreatedTo()));
+        }
+        return predicates.toArray(new Predicate[0]);
+    }
 
-            // Создаем HQL запрос для обновления
-            StringBuilder hql = new StringBuilder("UPDATE User SET ");
-            boolean hasUpdates = false;
+    private static Order sortOrder(CriteriaBuilder cb, Expression<?> expression, boolean descending) {
+        return descending ? cb.desc(expression) : cb.asc(expression);
+    }
 
-            if (name != null && !name.isEmpty()) {
-                hql.append("name = :name");
-                hasUpdates = true;
+    // % и _ в префиксе ищутся как обычные символы
+    private static String escapeLike(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 4);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '%' || c == '_') {
+                escaped.append('\\');
             }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+    public Stream<User> streamAllUsers() {
+        return streamAllUsers(STREAM_FETCH_SIZE);
+    }
+
+    // Поток по серверному курсору PostgreSQL: в памяти не больше fetchSize строк.
+    // Stream держит соединение, поэтому его обязательно закрывать (try-with-resources)
+    public Stream<User> streamAllUsers(int fetchSize) {
+        logger.debug("streamAllUsers start, fetchSize = {}", fetchSize);
+        return scrollShards(STREAM, "User.streamAll", User.class, fetchSize);
+    }
+
+    // То же без сущностей: из каждой строки создается только UserView
+    public Stream<UserView> streamAllUserViews() {
+        logger.debug("streamAllUserViews start...");
+        return scrollShards(STREAM_VIEWS, "UserView.streamAll", UserView.class, STREAM_FETCH_SIZE);
+    }
 
-            if (email != null && !email.isEmpty()) {
-                if (hasUpdates) hql.append(", ");
-                hql.append("email = :email");
-                hasUpdates = true;
+    // Шарды читаются по очереди, в порядке id: курсор следующего шарда открывается, когда кончился
+    // предыдущий, поэтому соединение в любой момент занято одно
+    private <T> Stream<T> scrollShards(OperationMetrics metrics, String queryName, Class<T> type, int fetchSize) {
+        int count = Shards.count();
+        if (count == 1) {
+            return scroll(metrics, 0, queryName, type, fetchSize);
+        }
+        ShardsSpliterator<T> spliterator = new ShardsSpliterator<>(count,
+                shard -> scroll(metrics, shard, queryName, type, fetchSize));
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+    }
+
+    private static final class ShardsSpliterator<T> extends Spliterators.AbstractSpliterator<T> {
+        private final int count;
+        private final IntFunction<Stream<T>> open;
+        private int next;
+        private Stream<T> current;
+        private Spliterator<T> rows;
+
+        ShardsSpliterator(int count, IntFunction<Stream<T>> open) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.count = count;
+            this.open = open;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            while (rows == null || !rows.tryAdvance(action)) {
+                closeCurrent();
+                if (next >= count) {
+                    return false;
+                }
+                current = open.apply(next++);
+                rows = current.spliterator();
             }
+            return true;
+        }
+
+        void close() {
+            closeCurrent();
+            next = count;
+        }
 
-            if (age != null) {
-                if (hasUpdates) hql.append(", ");
-                hql.append("age = :age");
-                hasUpdates = true;
+        private void closeCurrent() {
+            if (current != null) {
+                Stream<T> stream = current;
+                current = null;
+                rows = null;
+                stream.close();
             }
+        }
+    }
 
-            if (!hasUpdates) {
-                System.out.println("No fields to update");
+    private <T> Stream<T> scroll(OperationMetrics metrics, int shard, String queryName, Class<T> type, int fetchSize) {
+        long start = System.nanoTime();
+        StatelessSession session = HibernateUtil.getSessionFactory(shard).openStatelessSession();
+        Transaction transaction = null;
+        // Соединение берется на beginTransaction, дальше курсор живет на той же реплике
+        boolean replica = shard == 0 && ReplicaRouting.enterRead();
+        try {
+            // pgjdbc использует курсор только внутри транзакции (autocommit = false)
+            transaction = session.beginTransaction();
+            // У именованного запроса всегда задан CacheMode, а StatelessSession не дает его менять, поэтому
+            // берется только текст. План по этому тексту уже в кэше: его положила проверка при старте
+            String hql = session.getNamedQuery(queryName).getQueryString();
+            ScrollableResults results = session.createQuery(hql, type)
+                    .setFetchSize(fetchSize)
+                    .setReadOnly(true)
+                    .scroll(ScrollMode.FORWARD_ONLY);
+
+            Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<T>(
+                    Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+                @Override
+                public boolean tryAdvance(Consumer<? super T> action) {
+                    if (!results.next()) {
+                        return false;
+                    }
+                    action.accept(type.cast(results.get(0)));
+                    return true;
+                }
+            };
+
+            Transaction cursorTransaction = transaction;
+            return StreamSupport.stream(spliterator, false).onClose(() -> {
+                try {
+                    results.close();
+                    cursorTransaction.commit();
+                } finally {
+                    session.close();
+                }
+            });
+        } catch (HibernateException e) {
+            if (transaction != null && transaction.isActive()) {
                 transaction.rollback();
-                return false;
             }
+            session.close();
+            metrics.recordError(e);
+            logger.error("Hibernate error: {}", e.getMessage());
+            return Stream.empty();
+        } finally {
+            ReplicaRouting.exitRead(replica);
+            // Учитывается только открытие курсора, чтение зависит от потребителя
+            metrics.record(start);
+        }
+    }
 
-            hql.append(" WHERE id = :id");
+    // Обходит всех пользователей потоком, возвращает количество обработанных
+    public long forEachUser(Consumer<User> action) {
+        return forEach(streamAllUsers(), action);
+    }
 
-            Query<?> query = session.createQuery(hql.toString());
+    public long forEachUserView(Consumer<UserView> action) {
+        return forEach(streamAllUserViews(), action);
+    }
 
-            if (name != null && !name.isEmpty()) {
-                query.setParameter("name", name);
+    private static <T> long forEach(Stream<T> stream, Consumer<T> action) {
+        long count = 0;
+        try (Stream<T> rows = stream) {
+            Iterator<T> iterator = rows.iterator();
+            while (iterator.hasNext()) {
+                action.accept(iterator.next());
+                count++;
             }
+        } catch (HibernateException e) {
+            logger.error("Hibernate error: {}", e.getMessage());
+        }
+        return count;
+    }
 
-            if (email != null && !email.isEmpty()) {
-                query.setParameter("email", email);
+    // Все email всех шардов для построения фильтра. Только primary: реплика может отставать, и email,
+    // записанный до начала обхода, в фильтр бы не попал. Ошибка - исключение, а не неполный обход
+    long forEachEmail(Consumer<String> action) {
+        long start = System.nanoTime();
+        long count = 0;
+        try {
+            for (int shard = 0; shard < Shards.count(); shard++) {
+                try (StatelessSession session = HibernateUtil.getSessionFactory(shard).openStatelessSession()) {
+                    Transaction transaction = session.beginTransaction();
+                    try {
+                        String hql = session.getNamedQuery("User.allEmails").getQueryString();
+                        try (ScrollableResults results = session.createQuery(hql, String.class)
+                                .setFetchSize(STREAM_FETCH_SIZE)
+                                .setReadOnly(true)
+                                .scroll(ScrollMode.FORWARD_ONLY)) {
+                            while (results.next()) {
+                                String email = (String) results.get(0);
+                                if (email != null) {
+                                    action.accept(email);
+                                    count++;
+                                }
+                            }
+                        }
+                        transaction.commit();
+                    } finally {
+                        if (transaction.isActive()) {
+                            transaction.rollback();
+                        }
+                    }
+                }
             }
+            return count;
+        } catch (HibernateException e) {
+            SCAN_EMAILS.recordError(e);
+            throw e;
+        } finally {
+            SCAN_EMAILS.record(start);
+        }
+    }
 
-            if (age != null) {
+    public boolean updateUser(Long id, String name, String email, Integer age) {
+        return updateUserFields(id, name, email, age, null) == UpdateResult.UPDATED;
+    }
+
+    // Частичное обновление одним UPDATE: проверка существования и запись за один round trip.
+    // Если передан expectedVersion, обновление пройдет только при совпадении версии
+    public UpdateResult updateUserFields(Long id, String name, String email, Integer age, Long expectedVersion) {
+        logger.debug("updateUserFields start...");
+        boolean hasName = name != null && !name.isEmpty();
+        boolean hasEmail = email != null && !email.isEmpty();
+        boolean hasAge = age != null;
+
+        int shape = updateShape(hasName, hasEmail, hasAge);
+        if (shape == 0) {
+            logger.debug("No fields to update");
+            return UpdateResult.NO_CHANGES;
+        }
+        boolean versioned = expectedVersion != null;
+        int shard = shardOf(id);
+        if (shard < 0) {
+            return UpdateResult.NOT_FOUND;
+        }
+        // Строка живет на шарде своего email: новый email с другим домашним шардом потребовал бы
+        // переноса строки между БД, а уникальность такого email здесь не проверить
+        if (hasEmail && Shards.shardOfEmail(email) != shard) {
+            logger.warn("Email change of user {} needs moving the row to another shard, rejected", id);
+            return UpdateResult.FAILED;
+        }
+
+        return write(UPDATE, shard, session -> {
+            if (hasEmail) {
+                remember(session, email);
+            }
+            Query<?> query = session.createNamedQuery(UPDATE_QUERIES[versioned ? 1 : 0][shape]);
+            if (hasName) {
+                query.setParameter("name", name);
+            }
+            if (hasEmail) {
+                query.setParameter("email", email);
+            }
+            if (hasAge) {
                 query.setParameter("age", age);
             }
+            query.setParameter("id", id);
+            if (versioned) {
+                query.setParameter("version", expectedVersion);
+            }
+
+            if (query.executeUpdate() > 0) {
+                return UpdateResult.UPDATED;
+            }
+            // Лишний запрос только на неуспешном пути: отличаем конфликт версий от отсутствия записи
+            if (versioned && exists(session, id)) {
+                return UpdateResult.VERSION_CONFLICT;
+            }
+            return UpdateResult.NOT_FOUND;
+        }, UpdateResult.FAILED);
+    }
+
+    private boolean exists(Session session, Long id) {
+        return session.createNamedQuery("User.exists")
+                .setParameter("id", id)
+                .uniqueResult() != null;
+    }
+
+    private static int updateShape(boolean hasName, boolean hasEmail, boolean hasAge) {
+        return (hasName ? 1 : 0) | (hasEmail ? 2 : 0) | (hasAge ? 4 : 0);
+    }
 
+    // Имена запросов для всех 7 комбинаций полей (x2 с проверкой версии)
+    private static String[][] updateQueryNames() {
+        String[][] names = new String[2][8];
+        for (int shape = 1; shape < 8; shape++) {
+            names[0][shape] = "User.update." + shape;
+            names[1][shape] = "User.updateVersioned." + shape;
+        }
+        return names;
+    }
+
+    public boolean deleteUser(Long id) {
+        logger.debug("deleteUser start...");
+        int shard = shardOf(id);
+        if (shard < 0) {
+            return false;
+        }
+        return write(DELETE, shard, session -> {
+            Query<?> query = session.createNamedQuery("User.deleteById");
             query.setParameter("id", id);
+            return query.executeUpdate() > 0;
+        }, false);
+    }
 
-            int updatedCount = query.executeUpdate();
-            transaction.commit();
+    // Удаляет пачками по IN_CHUNK_SIZE в одной транзакции на шард, возвращает число удаленных строк.
+    // -1 при ошибке: на этом шарде не удалено ничего, но шарды, обработанные до него, уже закоммичены
+    public int deleteUsers(Collection<Long> ids) {
+        logger.debug("deleteUsers start, {} ids", ids.size());
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        int deleted = 0;
+        for (Map.Entry<Integer, List<Long>> shardIds
+                : groupByShard(new LinkedHashSet<>(ids), UserDAO::shardOf).entrySet()) {
+            List<List<Long>> chunks = chunks(shardIds.getValue());
+            int shardDeleted = write(DELETE_BULK, shardIds.getKey(), session -> {
+                int count = 0;
+                Query<?> query = session.createNamedQuery("User.deleteByIds");
+                for (List<Long> chunk : chunks) {
+                    count += query.setParameterList("ids", chunk).executeUpdate();
+                }
+                return count;
+            }, -1);
+            if (shardDeleted < 0) {
+                return -1;
+            }
+            deleted += shardDeleted;
+        }
+        return deleted;
+    }
 
-            return updatedCount > 0;
+    private static <T> List<List<T>> chunks(List<T> values) {
+        List<List<T>> chunks = new ArrayList<>((values.size() + IN_CHUNK_SIZE - 1) / IN_CHUNK_SIZE);
+        for (int from = 0; from < values.size(); from += IN_CHUNK_SIZE) {
+            chunks.add(values.subList(from, Math.min(from + IN_CHUNK_SIZE, values.size())));
+        }
+        return chunks;
+    }
 
-        } catch (ConstraintViolationException e) {
-            if (transaction != null) {
-                transaction.rollback();
+    public Optional<User> getUserByEmail(String email) {
+        logger.debug("getUserByEmail start...");
+        if (definitelyAbsent(email)) {
+            return Optional.empty();
+        }
+        // email - natural id, повторные поиски обслуживаются из кэша
+        return checked(read(GET_BY_EMAIL, Shards.shardOfEmail(email),
+                session -> session.bySimpleNaturalId(User.class).loadOptional(email), Optional.empty()));
+    }
+
+    // Через natural id, как getUserByEmail: повторные поиски идут из кэша, сущность загружается read-only
+    public Optional<UserView> getUserViewByEmail(String email) {
+        logger.debug("getUserViewByEmail start...");
+        if (definitelyAbsent(email)) {
+            return Optional.empty();
+        }
+        return checked(read(GET_VIEW_BY_EMAIL, Shards.shardOfEmail(email), session -> readOnly(session,
+                () -> session.bySimpleNaturalId(User.class).loadOptional(email).map(UserView::of)), Optional.empty()));
+    }
+
+    // Занят ли email. Свободный email фильтр обычно подтверждает без запроса; "занят" всегда проверяется в БД
+    public boolean isEmailTaken(String email) {
+        return getUserByEmail(email).isPresent();
+    }
+
+    private boolean definitelyAbsent(String email) {
+        EmailFilter filter = emailFilter;
+        return filter != null && email != null && !filter.mightContain(email);
+    }
+
+    // Пустой результат после "возможно" фильтра - ложное срабатывание (или ошибка чтения)
+    private <T> Optional<T> checked(Optional<T> found) {
+        EmailFilter filter = emailFilter;
+        if (filter != null && found.isEmpty()) {
+            filter.recordFalsePositive();
+        }
+        return found;
+    }
+
+    // Новые email попадают в фильтр до commit, чтобы поиск сразу после записи их не пропустил.
+    // После commit - еще раз: если пересборка фильтра взяла снимок таблицы раньше, чем строка стала
+    // видна, email окажется и в новом фильтре. Откат оставляет лишний бит - это только ложное срабатывание
+    private void remember(Session session, List<User> users) {
+        EmailFilter filter = emailFilter;
+        if (filter == null || users.isEmpty()) {
+            return;
+        }
+        List<String> emails = new ArrayList<>(users.size());
+        for (User user : users) {
+            if (user.getEmail() != null) {
+                emails.add(user.getEmail());
             }
-            logger.error(RED + "Constraint violation: {}", e.getMessage() + RESET);
-            return false;
+        }
+        remember(session, filter, emails);
+    }
 
-        } catch (HibernateException e) {
-            if (transaction != null) {
-                transaction.rollback();
+    private void remember(Session session, String email) {
+        EmailFilter filter = emailFilter;
+        if (filter != null) {
+            remember(session, filter, List.of(email));
+        }
+    }
+
+    private static void remember(Session session, EmailFilter filter, List<String> emails) {
+        emails.forEach(filter::add);
+        session.getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
             }
-            logger.error(RED + "Hibernate error: {}", e.getMessage() + RESET);
-            return false;
 
-        } finally {
-            session.close();
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    emails.forEach(filter::add);
+                }
+            }
+        });
+    }
+
+    // Агрегаты считаются в БД, в память приходят только числа, сущности не загружаются.
+    // Шарды считаются параллельно, итог складывается из их частичных агрегатов.
+    // -1 - запрос не выполнен
+    public long countUsers() {
+        return readShards(COUNT, allShards(), (shard, session) -> countUsers(session),
+                counts -> counts.stream().mapToLong(Long::longValue).sum(), -1L);
+    }
+
+    private static long countUsers(Session session) {
+        return session.createNamedQuery("User.count", Long.class).getSingleResult();
+    }
+
+    public UserStats.AgeSummary getAgeSummary() {
+        return readShards(AGE_SUMMARY, allShards(), (shard, session) -> ageSummary(totals(session)),
+                UserDAO::mergeAgeSummaries, null);
+    }
+
+    // {всего пользователей, count(age), min, max, avg} за один проход по таблице
+    private static Object[] totals(Session session) {
+        return session.createNamedQuery("User.totals", Object[].class).getSingleResult();
+    }
+
+    private static UserStats.AgeSummary ageSummary(Object[] totals) {
+        return new UserStats.AgeSummary(((Number) totals[1]).longValue(), (Integer) totals[2], (Integer) totals[3],
+                totals[4] == null ? null : ((Number) totals[4]).doubleValue());
+    }
+
+    // Среднее по шардам - взвешенное по числу пользователей с возрастом на каждом шарде
+    private static UserStats.AgeSummary mergeAgeSummaries(List<UserStats.AgeSummary> parts) {
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        long count = 0;
+        Integer min = null;
+        Integer max = null;
+        double sum = 0;
+        for (UserStats.AgeSummary part : parts) {
+            if (part.getCount() == 0) {
+                continue;
+            }
+            count += part.getCount();
+            min = min == null ? part.getMin() : Math.min(min, part.getMin());
+            max = max == null ? part.getMax() : Math.max(max, part.getMax());
+            sum += part.getAverage() * part.getCount();
         }
+        return new UserStats.AgeSummary(count, min, max, count == 0 ? null : sum / count);
     }
 
-    public boolean deleteUser(Long id) {
-        logger.debug("deleteUser start...");
-        Session session = HibernateUtil.getSessionFactory().openSession();
-        Transaction transaction = null;
+    // Корзины по bucketSize лет, только непустые и только пользователи с указанным возрастом
+    public List<UserStats.AgeBucket> countByAgeBucket(int bucketSize) {
+        if (bucketSize < 1) {
+            throw new IllegalArgumentException("bucketSize must be positive");
+        }
+        return readShards(AGE_BUCKETS, allShards(), (shard, session) -> ageBuckets(session, bucketSize),
+                parts -> mergeAgeBuckets(parts, bucketSize), List.of());
+    }
 
-        try {
-            transaction = session.beginTransaction();
+    private static List<UserStats.AgeBucket> mergeAgeBuckets(List<List<UserStats.AgeBucket>> parts, int bucketSize) {
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        Map<Integer, Long> counts = new TreeMap<>();
+        for (List<UserStats.AgeBucket> part : parts) {
+            for (UserStats.AgeBucket bucket : part) {
+                counts.merge(bucket.getFrom(), bucket.getCount(), Long::sum);
+            }
+        }
+        List<UserStats.AgeBucket> buckets = new ArrayList<>(counts.size());
+        counts.forEach((from, count) -> buckets.add(new UserStats.AgeBucket(from, from + bucketSize, count)));
+        return buckets;
+    }
 
-            Query<?> query = session.createQuery("DELETE FROM User WHERE id = :id");
-            query.setParameter("id", id);
+    @SuppressWarnings("unchecked")
+    private static List<UserStats.AgeBucket> ageBuckets(Session session, int bucketSize) {
+        List<Object[]> rows = session.createNativeQuery(
+                // float8, а не numeric: деление numeric втрое медленнее на полном проходе
+                "SELECT floor(u.age / CAST(:size AS float8)) * :size AS bucket, count(*) " +
+                "FROM user_table u WHERE u.age IS NOT NULL GROUP BY 1 ORDER BY 1")
+                .setParameter("size", bucketSize)
+                .getResultList();
+        List<UserStats.AgeBucket> buckets = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            int from = ((Number) row[0]).intValue();
+            buckets.add(new UserStats.AgeBucket(from, from + bucketSize, ((Number) row[1]).longValue()));
+        }
+        return buckets;
+    }
 
-            int deletedCount = query.executeUpdate();
-            transaction.commit();
+    // Регистрации по дням в [from, to), дни без регистраций - с нулем. Диапазон читается по индексу created_at
+    public List<UserStats.DailySignups> signupsPerDay(LocalDate from, LocalDate to) {
+        if (from.isAfter(to)) {
+            throw new IllegalArgumentException("from must not be after to");
+        }
+        return readShards(SIGNUPS, allShards(), (shard, session) -> signupsPerDay(session, from, to),
+                UserDAO::mergeSignups, List.of());
+    }
+
+    // У каждого шарда одни и те же дни в одном порядке, складываются по позиции
+    private static List<UserStats.DailySignups> mergeSignups(List<List<UserStats.DailySignups>> parts) {
+        if (parts.size() == 1) {
+            return parts.get(0);
+        }
+        List<UserStats.DailySignups> days = new ArrayList<>(parts.get(0));
+        for (List<UserStats.DailySignups> part : parts.subList(1, parts.size())) {
+            for (int i = 0; i < days.size(); i++) {
+                days.set(i, new UserStats.DailySignups(days.get(i).getDay(),
+                        days.get(i).getCount() + part.get(i).getCount()));
+            }
+        }
+        return days;
+    }
 
-            return deletedCount > 0;
+    @SuppressWarnings("unchecked")
+    private static List<UserStats.DailySignups> signupsPerDay(Session session, LocalDate from, LocalDate to) {
+        List<Object[]> rows = session.createNativeQuery(
+                "SELECT CAST(u.created_at AS date) AS day, count(*) FROM user_table u " +
+                "WHERE u.created_at >= :from AND u.created_at < :to GROUP BY 1 ORDER BY 1")
+                .setParameter("from", from.atStartOfDay())
+                .setParameter("to", to.atStartOfDay())
+                .getResultList();
+        Map<LocalDate, Long> counts = new HashMap<>();
+        for (Object[] row : rows) {
+            counts.put(((Date) row[0]).toLocalDate(), ((Number) row[1]).longValue());
+        }
+        List<UserStats.DailySignups> days = new ArrayList<>();
+        for (LocalDate day = from; day.isBefore(to); day = day.plusDays(1)) {
+            days.add(new UserStats.DailySignups(day, counts.getOrDefault(day, 0L)));
+        }
+        return days;
+    }
 
-        } catch (HibernateException e) {
-            if (transaction != null) {
-                transaction.rollback();
+    // Все агрегаты одним чтением: одна сессия и одно соединение на шард. Регистрации - за последние
+    // signupDays дней, включая сегодняшний. null - запрос не выполнен
+    public UserStats loadStats(int ageBucketSize, int signupDays) {
+        if (ageBucketSize < 1 || signupDays < 1) {
+            throw new IllegalArgumentException("ageBucketSize and signupDays must be positive");
+        }
+        LocalDate tomorrow = LocalDate.now().plusDays(1);
+        return readShards(STATS, allShards(), (shard, session) -> {
+            Object[] totals = totals(session);
+            return new UserStats(LocalDateTime.now(), ((Number) totals[0]).longValue(), ageSummary(totals),
+                    ageBuckets(session, ageBucketSize),
+                    signupsPerDay(session, tomorrow.minusDays(signupDays), tomorrow));
+        }, parts -> parts.size() == 1 ? parts.get(0) : new UserStats(LocalDateTime.now(),
+                parts.stream().mapToLong(UserStats::getTotalUsers).sum(),
+                mergeAgeSummaries(parts.stream().map(UserStats::getAgeSummary).collect(Collectors.toList())),
+                mergeAgeBuckets(parts.stream().map(UserStats::getAgeBuckets).collect(Collectors.toList()), ageBucketSize),
+                mergeSignups(parts.stream().map(UserStats::getSignupsPerDay).collect(Collectors.toList()))), null);
+    }
+
+    private static List<Integer> allShards() {
+        return IntStream.range(0, Shards.count()).boxed().collect(Collectors.toList());
+    }
+
+    // Чтение с нескольких шардов: каждый шард в своем виртуальном потоке, результаты в порядке шардов
+    // сводит merge. Внутри unit of work шарды читаются по очереди в текущем потоке - сессия
+    // unit of work привязана к нему. Ошибка любого шарда - ошибка всего чтения
+    private <T, R> R readShards(OperationMetrics metrics, Collection<Integer> shards,
+                                BiFunction<Integer, Session, T> work, Function<List<T>, R> merge, R onError) {
+        if (shards.size() == 1) {
+            int shard = shards.iterator().next();
+            return read(metrics, shard, session -> merge.apply(List.of(work.apply(shard, session))), onError);
+        }
+        long start = System.nanoTime();
+        List<T> parts = new ArrayList<>(shards.size());
+        try {
+            if (HibernateUtil.hasCurrentSession()) {
+                for (int shard : shards) {
+                    parts.add(readShard(shard, work));
+                }
+            } else {
+                // read-your-writes на шарде 0 зависит от вызывающего, а он хранится в ThreadLocal
+                Object caller = ReplicaRouting.getCaller();
+                List<CompletableFuture<T>> futures = new ArrayList<>(shards.size());
+                try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                    for (int shard : shards) {
+                        futures.add(CompletableFuture.supplyAsync(() -> {
+                            ReplicaRouting.setCaller(caller);
+                            return readShard(shard, work);
+                        }, executor));
+                    }
+                }
+                for (CompletableFuture<T> future : futures) {
+                    parts.add(future.join());
+                }
             }
-            logger.error(RED + "Hibernate error: {}", e.getMessage() + RESET);
-            return false;
+            return merge.apply(parts);
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof HibernateException) {
+                HibernateException cause = (HibernateException) e.getCause();
+                metrics.recordError(cause);
+                logError(cause);
+                return onError;
+            }
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        } catch (HibernateException e) {
+            metrics.recordError(e);
+            logError(e);
+            return onError;
+        } finally {
+            metrics.record(start);
+        }
+    }
 
+    // Одна попытка, без повтора при потере реплики: ошибку обрабатывает readShards
+    private <T> T readShard(int shard, BiFunction<Integer, Session, T> work) {
+        if (HibernateUtil.getCurrentShard() == shard) {
+            Session session = HibernateUtil.getSessionFactory(shard).getCurrentSession();
+            try {
+                return work.apply(shard, session);
+            } catch (HibernateException e) {
+                session.getTransaction().setRollbackOnly();
+                throw e;
+            }
+        }
+        Session session = HibernateUtil.getSessionFactory(shard).openSession();
+        boolean replica = shard == 0 && ReplicaRouting.enterRead();
+        try {
+            if (replica) {
+                session.setDefaultReadOnly(true);
+                session.setCacheMode(CacheMode.GET);
+            }
+            return work.apply(shard, session);
+        } catch (HibernateException e) {
+            if (replica && ReplicaRouting.isConnectionFailure(e)) {
+                ReplicaRouting.replicaFailed(e);
+            }
+            throw e;
         } finally {
             session.close();
+            ReplicaRouting.exitRead(replica);
         }
     }
 
-    public Optional<User> getUserByEmail(String email) {
-        logger.debug("getUserByEmail start...");
-        Session session = HibernateUtil.getSessionFactory().openSession();
+    // Чтение: внутри HibernateUtil.inTransaction этого шарда - в общей сессии, иначе в своей короткой сессии
+    private <T> T read(OperationMetrics metrics, int shard, Function<Session, T> work, T onError) {
+        long start = System.nanoTime();
+        try {
+            if (HibernateUtil.getCurrentShard() == shard) {
+                return joinCurrent(metrics, HibernateUtil.getSessionFactory(shard).getCurrentSession(),
+                        work, false, onError);
+            }
+            return readInNewSession(metrics, shard, work, onError, true);
+        } finally {
+            metrics.record(start);
+        }
+    }
+
+    // При настроенных репликах сессия читает с реплики (реплики есть только у шарда 0). Если соединение
+    // с ней оборвалось посреди запроса, реплика выводится из ротации, а чтение один раз повторяется
+    private <T> T readInNewSession(OperationMetrics metrics, int shard, Function<Session, T> work, T onError,
+                                   boolean retryOnReplicaFailure) {
+        Session session = HibernateUtil.getSessionFactory(shard).openSession();
+        boolean replica = shard == 0 && ReplicaRouting.enterRead();
         try {
-            Query<User> query = session.createQuery(
-                    "FROM User WHERE email = :email", User.class);
-            query.setParameter("email", email);
-            return Optional.ofNullable(query.uniqueResult());
+            if (replica) {
+                // Данные с реплики могут отставать: не кладем их в кэш второго уровня
+                session.setDefaultReadOnly(true);
+                session.setCacheMode(CacheMode.GET);
+            }
+            return work.apply(session);
         } catch (HibernateException e) {
-            logger.error(RED + "Hibernate error: {}", e.getMessage() + RESET);
-            return Optional.empty();
+            metrics.recordError(e);
+            boolean replicaLost = replica && ReplicaRouting.isConnectionFailure(e);
+            if (replicaLost) {
+                ReplicaRouting.replicaFailed(e);
+            }
+            if (!replicaLost || !retryOnReplicaFailure) {
+                logError(e);
+                return onError;
+            }
+            logger.warn("Replica read failed, retrying: {}", e.getMessage());
         } finally {
             session.close();
+            ReplicaRouting.exitRead(replica);
+        }
+        return readInNewSession(metrics, shard, work, onError, false);
+    }
+
+    // Запись: внутри unit of work этого шарда без собственного commit, иначе в отдельной транзакции.
+    // Запись на другой шард посреди unit of work не вошла бы в его транзакцию, поэтому запрещена
+    private <T> T write(OperationMetrics metrics, int shard, Function<Session, T> work, T onError) {
+        long start = System.nanoTime();
+        try {
+            SessionFactory factory = HibernateUtil.getSessionFactory(shard);
+            int current = HibernateUtil.getCurrentShard();
+            if (current == shard) {
+                return joinCurrent(metrics, factory.getCurrentSession(), work, true, onError);
+            }
+            if (current >= 0) {
+                throw new IllegalStateException("Write to shard " + shard + " inside unit of work of shard " + current);
+            }
+            Session session = factory.openSession();
+            Transaction transaction = null;
+            try {
+                transaction = session.beginTransaction();
+                T result = work.apply(session);
+                transaction.commit();
+                ReplicaRouting.recordWrite();
+                return result;
+            } catch (HibernateException e) {
+                if (transaction != null && transaction.isActive()) {
+                    transaction.rollback();
+                }
+                metrics.recordError(e);
+                logError(e);
+                return onError;
+            } finally {
+                session.close();
+            }
+        } finally {
+            metrics.record(start);
         }
     }
 
-    // ANSI escape codes
-    public static final String RESET = "\u001B[0m";
-    public static final String RED = "\033[1;91m";
+    private <T> T joinCurrent(OperationMetrics metrics, Session session, Function<Session, T> work,
+                              boolean flush, T onError) {
+        try {
+            T result = work.apply(session);
+            // flush сразу, чтобы нарушение ограничений всплыло у вызвавшего метода, а не на commit
+            if (flush) {
+                session.flush();
+            }
+            return result;
+        } catch (HibernateException e) {
+            session.getTransaction().setRollbackOnly();
+            metrics.recordError(e);
+            logError(e);
+            return onError;
+        }
+    }
+
+    private void logError(HibernateException e) {
+        if (e instanceof ConstraintViolationException) {
+            logger.error("Constraint violation: {}", e.getMessage());
+        } else {
+            logger.error("Hibernate error: {}", e.getMessage());
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,78 @@
+package com.example.dao;
+
+import java.time.LocalDateTime;
+
+// Фильтры UserDAO.searchUsers (null - фильтр не задан) и страница результата.
+// Возраст - включительно с обеих сторон, createdAt - полуинтервал [createdFrom, createdTo).
+// С фильтром по диапазону сортируйте по тому же полю: иначе PostgreSQL может выбрать обход
+// первичного ключа с фильтром, а id растет вместе с created_at, и свежие строки окажутся в самом конце
+public class UserSearchCriteria {
+
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 1000;
+
+    public enum SortField {
+        ID("id"), NAME("name"), EMAIL("email"), AGE("age"), CREATED_AT("createdAt");
+
+        private final String attribute;
+
+        SortField(String attribute) {
+            this.attribute = attribute;
+        }
+
+        public String getAttribute() { return attribute; }
+    }
+
+    // Начало имени, с учетом регистра
+    private String namePrefix;
+    // Точное совпадение без учета регистра
+    private String email;
+    private Integer minAge;
+    private Integer maxAge;
+    private LocalDateTime createdFrom;
+    private LocalDateTime createdTo;
+    private SortField sortBy = SortField.ID;
+    private boolean descending;
+    private int offset;
+    private int limit = DEFAULT_LIMIT;
+
+    public String getNamePrefix() { return namePrefix; }
+    public void setNamePrefix(String namePrefix) { this.namePrefix = namePrefix; }
+
+    public String getEmail() { return email; }
+    public void setEmail(String email) { this.email = email; }
+
+    public Integer getMinAge() { return minAge; }
+    public void setMinAge(Integer minAge) { this.minAge = minAge; }
+
+    public Integer getMaxAge() { return maxAge; }
+    public void setMaxAge(Integer maxAge) { this.maxAge = maxAge; }
+
+    public LocalDateTime getCreatedFrom() { return createdFrom; }
+    public void setCreatedFrom(LocalDateTime createdFrom) { this.createdFrom = createdFrom; }
+
+    public LocalDateTime getCreatedTo() { return createdTo; }
+    public void setCreatedTo(LocalDateTime createdTo) { this.createdTo = createdTo; }
+
+    public SortField getSortBy() { return sortBy; }
+    public void setSortBy(SortField sortBy) { this.sortBy = sortBy == null ? SortField.ID : sortBy; }
+
+    public boolean isDescending() { return descending; }
+    public void setDescending(boolean descending) { this.descending = descending; }
+
+    public int getOffset() { return offset; }
+    public void setOffset(int offset) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset must not be negative");
+        }
+        this.offset = offset;
+    }
+
+    public int getLimit() { return limit; }
+    public void setLimit(int limit) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("limit must be between 1 and " + MAX_LIMIT);
+        }
+        this.limit = limit;
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.dao;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+
+// Агрегаты по пользователям, посчитанные в БД одним чтением (UserDAO.loadStats)
+public class UserStats {
+
+    private final LocalDateTime takenAt;
+    private final long totalUsers;
+    private final AgeSummary ageSummary;
+    private final List<AgeBucket> ageBuckets;
+    private final List<DailySignups> signupsPerDay;
+
+    UserStats(LocalDateTime takenAt, long totalUsers, AgeSummary ageSummary,
+              List<AgeBucket> ageBuckets, List<DailySignups> signupsPerDay) {
+        this.takenAt = takenAt;
+        this.totalUsers = totalUsers;
+        this.ageSummary = ageSummary;
+        this.ageBuckets = Collections.unmodifiableList(ageBuckets);
+        this.signupsPerDay = Collections.unmodifiableList(signupsPerDay);
+    }
+
+    public LocalDateTime getTakenAt() { return takenAt; }
+
+    public long getTotalUsers() { return totalUsers; }
+
+    public AgeSummary getAgeSummary() { return ageSummary; }
+
+    public List<AgeBucket> getAgeBuckets() { return ageBuckets; }
+
+    public List<DailySignups> getSignupsPerDay() { return signupsPerDay; }
+
+    @Override
+    public String toString() {
+        return String.format("[Stats INFO] takenAt = %s, total = %d, %s, buckets = %s, signups = %s",
+                takenAt, totalUsers, ageSummary, ageBuckets, signupsPerDay);
+    }
+
+    // Только пользователи с указанным возрастом; min/max/avg - null, если таких нет
+    public static class AgeSummary {
+        private final long count;
+        private final Integer min;
+        private final Integer max;
+        private final Double average;
+
+        AgeSummary(long count, Integer min, Integer max, Double average) {
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.average = average;
+        }
+
+        public long getCount() { return count; }
+
+        public Integer getMin() { return min; }
+
+        public Integer getMax() { return max; }
+
+        public Double getAverage() { return average; }
+
+        @Override
+        public String toString() {
+            return String.format("age count = %d, min = %s, max = %s, avg = %s", count, min, max,
+                    average == null ? null : String.format("%.1f", average));
+        }
+    }
+
+    // Возраст в [from, to)
+    public static class AgeBucket {
+        private final int from;
+        private final int to;
+        private final long count;
+
+        AgeBucket(int from, int to, long count) {
+            this.from = from;
+            this.to = to;
+            this.count = count;
+        }
+
+        public int getFrom() { return from; }
+
+        public int getTo() { return to; }
+
+        public long getCount() { return count; }
+
+        @Override
+        public String toString() {
+            return String.format("%d-%d: %d", from, to - 1, count);
+        }
+    }
+
+    public static class DailySignups {
+        private final LocalDate day;
+        private final long count;
+
+        DailySignups(LocalDate day, long count) {
+            this.day = day;
+            this.count = count;
+        }
+
+        public LocalDate getDay() { return day; }
+
+        public long getCount() { return count; }
+
+        @Override
+        public String toString() {
+            return day + ": " + count;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.dao;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Снимок UserStats для дашбордов и отчетов: агрегаты пересчитываются в фоне раз в refreshMs,
+// читатели получают последний снимок без обращения к БД. Неудачное обновление оставляет прежний снимок
+public class UserStatsRefresher implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(UserStatsRefresher.class);
+
+    private final UserDAO userDao;
+    private final int ageBucketSize;
+    private final int signupDays;
+    private final long refreshMs;
+    private final ScheduledExecutorService scheduler;
+    private volatile UserStats snapshot;
+
+    public UserStatsRefresher(UserDAO userDao, long refreshMs, int ageBucketSize, int signupDays) {
+        if (refreshMs < 1) {
+            throw new IllegalArgumentException("refreshMs must be positive");
+        }
+        this.userDao = userDao;
+        this.ageBucketSize = ageBucketSize;
+        this.signupDays = signupDays;
+        this.refreshMs = refreshMs;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "user-stats-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Первый пересчет сразу, из потока планировщика
+    public UserStatsRefresher start() {
+        scheduler.scheduleWithFixedDelay(this::refresh, 0, refreshMs, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    // null, пока не удалось посчитать ни одного снимка
+    public UserStats getSnapshot() { return snapshot; }
+
+    public UserStats refresh() {
+        try {
+            UserStats stats = userDao.loadStats(ageBucketSize, signupDays);
+            if (stats != null) {
+                snapshot = stats;
+            }
+        } catch (RuntimeException e) {
+            // Исключение из задачи остановило бы дальнейшие обновления
+            logger.warn("User stats refresh failed: {}", e.getMessage());
+        }
+        return snapshot;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.dao;
+
+import com.example.entity.User;
+
+import java.time.LocalDateTime;
+
+// Неизменяемое представление пользователя для показа и сериализации.
+// Строится HQL constructor expression (запросы UserView.* в package-info этого пакета), поэтому сессия
+// не держит ни сущность, ни ее снимок для dirty checking.
+// age - Integer, а не int: колонка nullable
+public record UserView(long id, String name, String email, Integer age, LocalDateTime createdAt) {
+
+    static UserView of(User user) {
+        return new UserView(user.getId(), user.getName(), user.getEmail(), user.getAge(), user.getCreatedAt());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[User INFO] id = %d, username = '%s',email = '%s', age = %d, createdAt = %s",
+                id, name, email, age, createdAt);
+    }
+}
@@ -0,0 +1,369 @@
+package com.example.dao;
+
+import com.example.entity.User;
+import com.example.util.HibernateUtil;
+import com.example.util.Shards;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.PersistenceException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Write-behind перед UserDAO: create/update складываются в ограниченную очередь и пишутся
+// фоновым потоком пачками - по набору maxBatch операций или через maxDelayMs после самой старой.
+// Повторные update одного id, еще не ушедшие в БД, сливаются в один UPDATE (последнее значение поля побеждает).
+// Внутри пачки сначала пишутся все create, затем update. Ошибка строки (например, занятый email)
+// завершает исключением только ее future, остальные операции пачки проходят
+public class WriteBehindUserWriter implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindUserWriter.class);
+
+    private final UserDAO userDao;
+    private final int capacity;
+    private final int maxBatch;
+    private final long maxDelayNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition flushNeeded = lock.newCondition();
+    private final ArrayDeque<PendingWrite> queue = new ArrayDeque<>();
+    private final Map<Long, PendingUpdate> pendingUpdates = new HashMap<>();
+    private final Thread worker;
+    private boolean closed;
+
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder written = new LongAdder();
+
+    public WriteBehindUserWriter(UserDAO userDao, int capacity, int maxBatch, long maxDelayMs) {
+        if (capacity < 1 || maxBatch < 1 || maxDelayMs < 0) {
+            throw new IllegalArgumentException("capacity and maxBatch must be positive, maxDelayMs non-negative");
+        }
+        this.userDao = userDao;
+        this.capacity = capacity;
+        this.maxBatch = maxBatch;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMs);
+        this.worker = new Thread(this::run, "user-write-behind");
+        this.worker.setDaemon(true);
+    }
+
+    // Фоновый поток запускается после конструктора: он не должен увидеть недостроенный объект.
+    // До start() операции только копятся в очереди
+    public WriteBehindUserWriter start() {
+        worker.start();
+        return this;
+    }
+
+    // id созданного пользователя; при отказе (дубликат email и т.п.) future завершается IllegalStateException
+    public CompletableFuture<Long> createUser(User user) {
+        PendingCreate create = new PendingCreate(user);
+        lock.lock();
+        try {
+            awaitCapacity();
+            enqueue(create);
+        } catch (RuntimeException e) {
+            create.future.completeExceptionally(e);
+        } finally {
+            lock.unlock();
+        }
+        return create.future;
+    }
+
+    // true - обновлен, false - нет такого id или нечего обновлять
+    public CompletableFuture<Boolean> updateUser(Long id, String name, String email, Integer age) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        lock.lock();
+        try {
+            PendingUpdate pending = pendingUpdates.get(id);
+            if (pending != null) {
+                pending.merge(name, email, age, future);
+                coalesced.increment();
+                return future;
+            }
+            awaitCapacity();
+            PendingUpdate update = new PendingUpdate(id);
+            update.merge(name, email, age, future);
+            pendingUpdates.put(id, update);
+            enqueue(update);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        } finally {
+            lock.unlock();
+        }
+        return future;
+    }
+
+    // Очередь полна - вызывающий ждет (backpressure), а не теряет запись
+    private void awaitCapacity() {
+        while (queue.size() >= capacity && !closed) {
+            notFull.awaitUninterruptibly();
+        }
+        if (closed) {
+            throw new RejectedExecutionException("write-behind writer is closed");
+        }
+    }
+
+    private void enqueue(PendingWrite write) {
+        queue.add(write);
+        if (queue.size() == 1 || queue.size() >= maxBatch) {
+            flushNeeded.signal();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            List<PendingWrite> batch = takeBatch();
+            if (batch == null) {
+                return;
+            }
+            try {
+                flush(batch);
+            } catch (RuntimeException e) {
+                logger.error("Write-behind batch of {} failed: {}", batch.size(), e.getMessage());
+                for (PendingWrite write : batch) {
+                    write.fail(e);
+                }
+            }
+        }
+    }
+
+    // null - писатель закрыт и очередь пуста
+    private List<PendingWrite> takeBatch() {
+        lock.lock();
+        try {
+            while (true) {
+                if (queue.isEmpty()) {
+                    if (closed) {
+                        return null;
+                    }
+                    flushNeeded.awaitUninterruptibly();
+                    continue;
+                }
+                long waited = System.nanoTime() - queue.peek().enqueuedAt;
+                if (queue.size() >= maxBatch || waited >= maxDelayNanos || closed) {
+                    break;
+                }
+                try {
+                    flushNeeded.awaitNanos(maxDelayNanos - waited);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    closed = true;
+                }
+            }
+            List<PendingWrite> batch = new ArrayList<>(Math.min(queue.size(), maxBatch));
+            while (!queue.isEmpty() && batch.size() < maxBatch) {
+                PendingWrite write = queue.poll();
+                if (write instanceof PendingUpdate) {
+                    // Дальнейшие update этого id пойдут уже следующей пачкой
+                    pendingUpdates.remove(((PendingUpdate) write).id);
+                }
+                batch.add(write);
+            }
+            notFull.signalAll();
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flush(List<PendingWrite> batch) {
+        List<PendingCreate> creates = new ArrayList<>();
+        List<PendingUpdate> updates = new ArrayList<>();
+        for (PendingWrite write : batch) {
+            if (write instanceof PendingCreate) {
+                creates.add((PendingCreate) write);
+            } else {
+                updates.add((PendingUpdate) write);
+            }
+        }
+        if (!creates.isEmpty()) {
+            flushCreates(creates);
+        }
+        if (!updates.isEmpty()) {
+            flushUpdates(updates);
+        }
+        batches.increment();
+        written.add(batch.size());
+    }
+
+    // Одна транзакция на пачку; дубликаты отсекает и откатывает по строкам сам createUsers
+    private void flushCreates(List<PendingCreate> creates) {
+        List<User> users = new ArrayList<>(creates.size());
+        for (PendingCreate create : creates) {
+            users.add(create.user);
+        }
+        BulkImportResult result = userDao.createUsers(users, creates.size());
+
+        boolean[] failed = new boolean[creates.size()];
+        for (BulkImportResult.RowFailure failure : result.getFailures()) {
+            failed[failure.getIndex()] = true;
+            creates.get(failure.getIndex()).future.completeExceptionally(
+                    new IllegalStateException("user was not created: " + failure.getReason()));
+        }
+        for (int i = 0; i < creates.size(); i++) {
+            if (!failed[i]) {
+                creates.get(i).future.complete(creates.get(i).user.getId());
+            }
+        }
+    }
+
+    // Все UPDATE пачки одного шарда - в одной транзакции. Если хоть один упал (занятый email), транзакция
+    // откатывается целиком и пачка повторяется по одному UPDATE в своей транзакции
+    private void flushUpdates(List<PendingUpdate> updates) {
+        Map<Integer, List<PendingUpdate>> byShard = new TreeMap<>();
+        for (PendingUpdate update : updates) {
+            // id без шарда обновит шард 0 - UPDATE просто не найдет строку
+            int shard = update.id == null ? 0 : Math.max(0, Shards.shardOfId(update.id));
+            byShard.computeIfAbsent(shard, key -> new ArrayList<>()).add(update);
+        }
+        byShard.forEach(this::flushUpdates);
+    }
+
+    private void flushUpdates(int shard, List<PendingUpdate> updates) {
+        List<UpdateResult> results;
+        try {
+            results = HibernateUtil.inTransaction(shard, session -> {
+                List<UpdateResult> batchResults = new ArrayList<>(updates.size());
+                for (PendingUpdate update : updates) {
+                    UpdateResult result = update.apply(userDao);
+                    if (result == UpdateResult.FAILED) {
+                        // Не все FAILED помечают транзакцию (email с другим шардом отклоняется до записи):
+                        // без отката уже примененные UPDATE закоммитились бы и повторились по строкам
+                        session.getTransaction().setRollbackOnly();
+                        return null;
+                    }
+                    batchResults.add(result);
+                }
+                return batchResults;
+            });
+        } catch (PersistenceException e) {
+            // Транзакция откачена (rollback-only, ошибка commit или другой сбой Hibernate),
+            // ничего из пачки не записано
+            results = null;
+        }
+
+        for (int i = 0; i < updates.size(); i++) {
+            PendingUpdate update = updates.get(i);
+            update.complete(results != null ? results.get(i) : update.apply(userDao));
+        }
+    }
+
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Сколько update было слито с уже стоящими в очереди
+    public long getCoalesced() { return coalesced.sum(); }
+
+    public long getBatches() { return batches.sum(); }
+
+    public long getWritten() { return written.sum(); }
+
+    // Новые операции отклоняются, уже принятые дописываются
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            if (worker.getState() == Thread.State.NEW) {
+                // start() не вызывался: дописать принятые операции некому
+                RejectedExecutionException rejected = new RejectedExecutionException("write-behind writer was not started");
+                queue.forEach(write -> write.fail(rejected));
+                queue.clear();
+                pendingUpdates.clear();
+            }
+            flushNeeded.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private abstract static class PendingWrite {
+        final long enqueuedAt = System.nanoTime();
+
+        abstract void fail(Throwable e);
+    }
+
+    private static class PendingCreate extends PendingWrite {
+        final User user;
+        final CompletableFuture<Long> future = new CompletableFuture<>();
+
+        PendingCreate(User user) {
+            this.user = user;
+        }
+
+        @Override
+        void fail(Throwable e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    private static class PendingUpdate extends PendingWrite {
+        final Long id;
+        String name;
+        String email;
+        Integer age;
+        final List<CompletableFuture<Boolean>> futures = new ArrayList<>(1);
+
+        PendingUpdate(Long id) {
+            this.id = id;
+        }
+
+        void merge(String name, String email, Integer age, CompletableFuture<Boolean> future) {
+            if (name != null && !name.isEmpty()) {
+                this.name = name;
+            }
+            if (email != null && !email.isEmpty()) {
+                this.email = email;
+            }
+            if (age != null) {
+                this.age = age;
+            }
+            futures.add(future);
+        }
+
+        UpdateResult apply(UserDAO userDao) {
+            return userDao.updateUserFields(id, name, email, age, null);
+        }
+
+        void complete(UpdateResult result) {
+            for (CompletableFuture<Boolean> future : futures) {
+                if (result == UpdateResult.FAILED) {
+                    future.completeExceptionally(new IllegalStateException(
+                            "user " + id + " was not updated, email might already exist"));
+                } else {
+                    future.complete(result == UpdateResult.UPDATED);
+                }
+            }
+        }
+
+        @Override
+        void fail(Throwable e) {
+            for (CompletableFuture<Boolean> future : futures) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
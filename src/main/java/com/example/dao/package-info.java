@@ -0,0 +1,12 @@
+// Запросы UserView.* объявлены рядом с UserView: entity не зависит от слоя DAO.
+// Пакет подключен в hibernate.cfg.xml (<mapping package>), поэтому запросы так же проверяются при старте
+@NamedQueries({
+        @NamedQuery(name = "UserView.byId", query = "SELECT new com.example.dao.UserView(u.id, u.name, u.email, u.age, u.createdAt) "
+                + "FROM User u WHERE u.id = :id"),
+        @NamedQuery(name = "UserView.streamAll", query = "SELECT new com.example.dao.UserView(u.id, u.name, u.email, u.age, u.createdAt) "
+                + "FROM User u ORDER BY u.id")
+})
+package com.example.dao;
+
+import org.hibernate.annotations.NamedQueries;
+import org.hibernate.annotations.NamedQuery;
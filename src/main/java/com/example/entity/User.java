@@ -1,19 +1,33 @@
 package com.example.entity;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
+
 import javax.persistence.*;
 import java.time.LocalDateTime;
 import java.util.Objects;
 
 @Entity
-@Table(name = "user_table")
+// Индексы поиска создает миграция V3; lower(email) и name text_pattern_ops через @Index не описать
+@Table(name = "user_table", indexes = {
+        @Index(name = "idx_user_table_created_at", columnList = "created_at, id"),
+        @Index(name = "idx_user_table_age", columnList = "age, id")
+})
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "user")
+@NaturalIdCache(region = "user-natural-id")
 public class User {
+    // Пул из allocationSize id на один вызов nextval, чтобы работал JDBC batching
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "user_seq")
+    @SequenceGenerator(name = "user_seq", sequenceName = "user_table_seq", allocationSize = 50)
     private Long id;
 
     @Column(name = "name", nullable = false, length = 100)
     private String name;
 
+    @NaturalId(mutable = true)
     @Column(name = "email", nullable = false, unique = true, length = 150)
     private String email;
 
@@ -23,6 +37,11 @@ public class User {
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
 
+    // Оптимистическая блокировка: версия увеличивается при каждом обновлении
+    @Version
+    @Column(name = "version", nullable = false, columnDefinition = "bigint default 0")
+    private Long version;
+
     // Конструкторы
     public User() {
         this.createdAt = LocalDateTime.now();
@@ -51,6 +70,9 @@ public class User {
     public LocalDateTime getCreatedAt() { return createdAt; }
     public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
 
+    public Long getVersion() { return version; }
+    public void setVersion(Long version) { this.version = version; }
+
     // equals и hashCode
     @Override
     public boolean equals(Object o) {
@@ -70,8 +92,8 @@ public class User {
     @Override
     public String toString() {
         return String.format(
-                "[User INFO] id = %d, username = '%s',email = '%s', age = %d, createdAt = %s",
-                id, name, email, age, createdAt);
+                "[User INFO] id = %d, username = '%s',email = '%s', age = %d, createdAt = %s, version = %d",
+                id, name, email, age, createdAt, version);
     }
 
     @PrePersist
@@ -0,0 +1,46 @@
+// HQL UserDAO - именованные запросы. Hibernate разбирает их при сборке SessionFactory
+// (hibernate.query.startup_check): ошибка в запросе не дает сервису стартовать, а готовые планы
+// сразу лежат в кэше планов, первый вызов не платит за разбор.
+// User.update.N / User.updateVersioned.N - частичный UPDATE, N - битовая маска полей: 1 name, 2 email, 4 age
+@NamedQueries({
+        @NamedQuery(name = "User.all", query = "FROM User u"),
+        @NamedQuery(name = "User.page", query = "FROM User u WHERE u.id > :afterId ORDER BY u.id"),
+        @NamedQuery(name = "User.streamAll", query = "FROM User u ORDER BY u.id"),
+        @NamedQuery(name = "User.existingEmails", query = "SELECT u.email FROM User u WHERE u.email IN (:emails)"),
+        @NamedQuery(name = "User.allEmails", query = "SELECT u.email FROM User u"),
+        @NamedQuery(name = "User.exists", query = "SELECT 1 FROM User u WHERE u.id = :id"),
+        @NamedQuery(name = "User.count", query = "SELECT count(u) FROM User u"),
+        @NamedQuery(name = "User.totals",
+                query = "SELECT count(u), count(u.age), min(u.age), max(u.age), avg(u.age) FROM User u"),
+        @NamedQuery(name = "User.deleteById", query = "DELETE FROM User u WHERE u.id = :id"),
+        @NamedQuery(name = "User.deleteByIds", query = "DELETE FROM User u WHERE u.id IN (:ids)"),
+
+        @NamedQuery(name = "User.update.1", query = "UPDATE VERSIONED User u SET u.name = :name WHERE u.id = :id"),
+        @NamedQuery(name = "User.update.2", query = "UPDATE VERSIONED User u SET u.email = :email WHERE u.id = :id"),
+        @NamedQuery(name = "User.update.3", query = "UPDATE VERSIONED User u SET u.name = :name, u.email = :email WHERE u.id = :id"),
+        @NamedQuery(name = "User.update.4", query = "UPDATE VERSIONED User u SET u.age = :age WHERE u.id = :id"),
+        @NamedQuery(name = "User.update.5", query = "UPDATE VERSIONED User u SET u.name = :name, u.age = :age WHERE u.id = :id"),
+        @NamedQuery(name = "User.update.6", query = "UPDATE VERSIONED User u SET u.email = :email, u.age = :age WHERE u.id = :id"),
+        @NamedQuery(name = "User.update.7",
+                query = "UPDATE VERSIONED User u SET u.name = :name, u.email = :email, u.age = :age WHERE u.id = :id"),
+
+        @NamedQuery(name = "User.updateVersioned.1",
+                query = "UPDATE VERSIONED User u SET u.name = :name WHERE u.id = :id AND u.version = :version"),
+        @NamedQuery(name = "User.updateVersioned.2",
+                query = "UPDATE VERSIONED User u SET u.email = :email WHERE u.id = :id AND u.version = :version"),
+        @NamedQuery(name = "User.updateVersioned.3",
+                query = "UPDATE VERSIONED User u SET u.name = :name, u.email = :email WHERE u.id = :id AND u.version = :version"),
+        @NamedQuery(name = "User.updateVersioned.4",
+                query = "UPDATE VERSIONED User u SET u.age = :age WHERE u.id = :id AND u.version = :version"),
+        @NamedQuery(name = "User.updateVersioned.5",
+                query = "UPDATE VERSIONED User u SET u.name = :name, u.age = :age WHERE u.id = :id AND u.version = :version"),
+        @NamedQuery(name = "User.updateVersioned.6",
+                query = "UPDATE VERSIONED User u SET u.email = :email, u.age = :age WHERE u.id = :id AND u.version = :version"),
+        @NamedQuery(name = "User.updateVersioned.7",
+                query = "UPDATE VERSIONED User u SET u.name = :name, u.email = :email, u.age = :age "
+                        + "WHERE u.id = :id AND u.version = :version")
+})
+package com.example.entity;
+
+import org.hibernate.annotations.NamedQueries;
+import org.hibernate.annotations.NamedQuery;
@@ -0,0 +1,41 @@
+package com.example.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.pattern.color.ANSIConstants;
+import ch.qos.logback.core.pattern.color.ForegroundCompositeConverterBase;
+import org.slf4j.Marker;
+
+import java.util.List;
+
+// Раскраска для консольного паттерна: %colored(...) в logback.xml.
+// Цвет берется из маркера события, без маркера - из уровня
+public class ColorConverter extends ForegroundCompositeConverterBase<ILoggingEvent> {
+
+    @Override
+    protected String getForegroundColorCode(ILoggingEvent event) {
+        List<Marker> markers = event.getMarkerList();
+        if (markers != null && !markers.isEmpty()) {
+            Marker marker = markers.get(0);
+            if (marker == LogMarkers.SUCCESS) {
+                return ANSIConstants.GREEN_FG;
+            } else if (marker == LogMarkers.FAILURE) {
+                return ANSIConstants.RED_FG;
+            } else if (marker == LogMarkers.SECTION) {
+                return ANSIConstants.CYAN_FG;
+            } else if (marker == LogMarkers.HIGHLIGHT) {
+                return ANSIConstants.MAGENTA_FG;
+            } else if (marker == LogMarkers.NOTICE) {
+                return ANSIConstants.YELLOW_FG;
+            }
+        }
+        switch (event.getLevel().toInt()) {
+            case Level.ERROR_INT:
+                return ANSIConstants.BOLD + ANSIConstants.RED_FG;
+            case Level.WARN_INT:
+                return ANSIConstants.RED_FG;
+            default:
+                return ANSIConstants.DEFAULT_FG;
+        }
+    }
+}
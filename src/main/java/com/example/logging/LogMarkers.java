@@ -0,0 +1,18 @@
+package com.example.logging;
+
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+// Маркеры вместо ANSI-кодов в сообщениях: цвет выбирает ColorConverter при форматировании,
+// поэтому при выключенном уровне вызов логгера ничего не аллоцирует
+public final class LogMarkers {
+
+    public static final Marker SUCCESS = MarkerFactory.getMarker("SUCCESS");
+    public static final Marker FAILURE = MarkerFactory.getMarker("FAILURE");
+    public static final Marker SECTION = MarkerFactory.getMarker("SECTION");
+    public static final Marker HIGHLIGHT = MarkerFactory.getMarker("HIGHLIGHT");
+    public static final Marker NOTICE = MarkerFactory.getMarker("NOTICE");
+
+    private LogMarkers() {
+    }
+}
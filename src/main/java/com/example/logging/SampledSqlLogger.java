@@ -0,0 +1,28 @@
+package com.example.logging;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Замена show_sql: при включенном DEBUG для com.example.sql пишет каждый N-й запрос
+// (N = -Dsql.log.sampleEvery, по умолчанию 100). Медленные запросы логирует сам Hibernate
+// в org.hibernate.SQL_SLOW (hibernate.session.events.log.LOG_QUERIES_SLOWER_THAN_MS)
+public class SampledSqlLogger implements StatementInspector {
+    private static final Logger logger = LoggerFactory.getLogger("com.example.sql");
+
+    private static final int SAMPLE_EVERY = Math.max(1, Integer.getInteger("sql.log.sampleEvery", 100));
+
+    private final AtomicLong statements = new AtomicLong();
+
+    @Override
+    public String inspect(String sql) {
+        if (logger.isDebugEnabled()) {
+            if (statements.incrementAndGet() % SAMPLE_EVERY == 0) {
+                logger.debug("sampled SQL (1 of {}): {}", SAMPLE_EVERY, sql);
+            }
+        }
+        return sql;
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.metrics;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Реестр метрик операций DAO. OperationMetrics создаются один раз и хранятся в полях вызывающего кода,
+// поэтому на горячем пути нет поиска по имени
+public final class DaoMetrics {
+
+    private static final Map<String, OperationMetrics> operations = new ConcurrentSkipListMap<>();
+    private static final Map<String, FilterMetrics> filters = new ConcurrentSkipListMap<>();
+
+    private DaoMetrics() {
+    }
+
+    public static OperationMetrics operation(String name) {
+        return operations.computeIfAbsent(name, OperationMetrics::new);
+    }
+
+    public static Collection<OperationMetrics> operations() {
+        return Collections.unmodifiableCollection(operations.values());
+    }
+
+    public static FilterMetrics filter(String name) {
+        return filters.computeIfAbsent(name, FilterMetrics::new);
+    }
+
+    public static Collection<FilterMetrics> filters() {
+        return Collections.unmodifiableCollection(filters.values());
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.metrics;
+
+import com.example.util.BloomFilter;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Метрики фильтра Блума перед БД: сколько проверок, сколько обращений к БД сэкономлено
+// (точный промах) и сколько "возможно есть" оказались ложными
+public class FilterMetrics {
+
+    private final String name;
+    private final LongAdder checks = new LongAdder();
+    private final LongAdder negatives = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+    private final LongAdder rebuilds = new LongAdder();
+    private final LongAdder rebuildFailures = new LongAdder();
+    // null, пока фильтр не построен
+    private volatile BloomFilter filter;
+
+    FilterMetrics(String name) {
+        this.name = name;
+    }
+
+    public void recordCheck(boolean mightContain) {
+        checks.increment();
+        if (!mightContain) {
+            negatives.increment();
+        }
+    }
+
+    public void recordFalsePositive() {
+        falsePositives.increment();
+    }
+
+    public void recordRebuild(BloomFilter filter) {
+        this.filter = filter;
+        rebuilds.increment();
+    }
+
+    public void recordRebuildFailure() {
+        rebuildFailures.increment();
+    }
+
+    public String getName() { return name; }
+
+    public long getChecks() { return checks.sum(); }
+
+    public long getNegatives() { return negatives.sum(); }
+
+    public long getFalsePositives() { return falsePositives.sum(); }
+
+    public long getRebuilds() { return rebuilds.sum(); }
+
+    public long getRebuildFailures() { return rebuildFailures.sum(); }
+
+    public BloomFilter getFilter() { return filter; }
+}
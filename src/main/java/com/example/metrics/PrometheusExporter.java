@@ -0,0 +1,156 @@
+package com.example.metrics;
+
+import com.example.util.LatencyHistogram;
+import com.example.util.PoolMetrics;
+import com.example.util.ReplicaSet;
+import org.hibernate.stat.Statistics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.ToDoubleFunction;
+
+// Текстовый формат Prometheus (exposition format 0.0.4)
+public final class PrometheusExporter {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private PrometheusExporter() {
+    }
+
+    public static String render() {
+        StringBuilder out = new StringBuilder(4096);
+
+        header(out, "user_dao_operation_seconds", "summary", "Latency of UserDAO operations");
+        for (OperationMetrics operation : DaoMetrics.operations()) {
+            summary(out, "user_dao_operation_seconds", "operation=\"" + operation.getName() + "\"",
+                    operation.getLatency());
+        }
+
+        header(out, "user_dao_operation_errors_total", "counter", "Failed UserDAO operations by exception type");
+        for (OperationMetrics operation : DaoMetrics.operations()) {
+            operation.getErrorCounts().forEach((type, count) ->
+                    sample(out, "user_dao_operation_errors_total",
+                            "operation=\"" + operation.getName() + "\",exception=\"" + type + "\"", count));
+        }
+
+        // Фильтры, которые уже построены: HELP/TYPE каждой метрики - один раз на все фильтры
+        List<FilterMetrics> filters = new ArrayList<>();
+        for (FilterMetrics filter : DaoMetrics.filters()) {
+            if (filter.getFilter() != null) {
+                filters.add(filter);
+            }
+        }
+        if (!filters.isEmpty()) {
+            filterSamples(out, filters, "bloom_filter_checks_total", "counter",
+                    "Lookups checked against the Bloom filter", FilterMetrics::getChecks);
+            filterSamples(out, filters, "bloom_filter_negatives_total", "counter",
+                    "Definite misses answered without the database", FilterMetrics::getNegatives);
+            filterSamples(out, filters, "bloom_filter_false_positives_total", "counter",
+                    "Filter said maybe, the database had no row", FilterMetrics::getFalsePositives);
+            filterSamples(out, filters, "bloom_filter_rebuilds_total", "counter", null, FilterMetrics::getRebuilds);
+            filterSamples(out, filters, "bloom_filter_rebuild_failures_total", "counter", null,
+                    FilterMetrics::getRebuildFailures);
+            filterSamples(out, filters, "bloom_filter_size_bytes", "gauge", null,
+                    filter -> filter.getFilter().getSizeBytes());
+            filterSamples(out, filters, "bloom_filter_estimated_fpp", "gauge",
+                    "False positive probability estimated from set bits", filter -> filter.getFilter().estimatedFpp());
+        }
+
+        PoolMetrics pool = UserServiceMetrics.poolMetrics();
+        if (pool != null) {
+            header(out, "db_pool_acquire_seconds", "summary", "Time spent waiting for a pooled connection");
+            summary(out, "db_pool_acquire_seconds", "", pool.getAcquireTime());
+            header(out, "db_pool_usage_seconds", "summary", "Time a connection was held by the caller");
+            summary(out, "db_pool_usage_seconds", "", pool.getUsageTime());
+            gauge(out, "db_pool_connections_active", pool.getActiveConnections());
+            gauge(out, "db_pool_connections_idle", pool.getIdleConnections());
+            gauge(out, "db_pool_threads_pending", pool.getPendingThreads());
+            counter(out, "db_pool_acquire_timeouts_total", pool.getTimeoutCount());
+        }
+
+        ReplicaSet replicas = UserServiceMetrics.replicas();
+        if (replicas != null) {
+            header(out, "db_replica_up", "gauge", "1 if the read replica is in rotation");
+            for (ReplicaSet.Replica replica : replicas.getReplicas()) {
+                sample(out, "db_replica_up", "replica=\"" + replica.getName() + "\"", replica.isHealthy() ? 1 : 0);
+            }
+            header(out, "db_replica_reads_total", "counter", "Connections handed out by the read replica");
+            for (ReplicaSet.Replica replica : replicas.getReplicas()) {
+                sample(out, "db_replica_reads_total", "replica=\"" + replica.getName() + "\"", replica.getReads());
+            }
+            header(out, "db_replica_acquire_seconds", "summary", "Time spent waiting for a replica connection");
+            for (ReplicaSet.Replica replica : replicas.getReplicas()) {
+                summary(out, "db_replica_acquire_seconds", "replica=\"" + replica.getName() + "\"",
+                        replica.getMetrics().getAcquireTime());
+            }
+            counter(out, "db_replica_fallbacks_total", replicas.getFallbacks());
+        }
+
+        Statistics statistics = UserServiceMetrics.statistics();
+        if (statistics != null && statistics.isStatisticsEnabled()) {
+            counter(out, "hibernate_second_level_cache_hits_total", statistics.getSecondLevelCacheHitCount());
+            counter(out, "hibernate_second_level_cache_misses_total", statistics.getSecondLevelCacheMissCount());
+            counter(out, "hibernate_second_level_cache_puts_total", statistics.getSecondLevelCachePutCount());
+            counter(out, "hibernate_natural_id_cache_hits_total", statistics.getNaturalIdCacheHitCount());
+            counter(out, "hibernate_natural_id_cache_misses_total", statistics.getNaturalIdCacheMissCount());
+            counter(out, "hibernate_query_plan_cache_hits_total", statistics.getQueryPlanCacheHitCount());
+            counter(out, "hibernate_query_plan_cache_misses_total", statistics.getQueryPlanCacheMissCount());
+            counter(out, "hibernate_query_executions_total", statistics.getQueryExecutionCount());
+            gauge(out, "hibernate_query_execution_max_seconds", statistics.getQueryExecutionMaxTime() / 1e3);
+            counter(out, "hibernate_entity_loads_total", statistics.getEntityLoadCount());
+            counter(out, "hibernate_sessions_opened_total", statistics.getSessionOpenCount());
+            counter(out, "hibernate_connections_obtained_total", statistics.getConnectCount());
+        }
+        return out.toString();
+    }
+
+    private static void summary(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        for (double quantile : QUANTILES) {
+            sample(out, name, prefix + "quantile=\"" + quantile + "\"",
+                    histogram.getPercentileNanos(quantile * 100) / 1e9);
+        }
+        sample(out, name + "_sum", labels, histogram.getTotalNanos() / 1e9);
+        sample(out, name + "_count", labels, histogram.getCount());
+    }
+
+    private static void filterSamples(StringBuilder out, List<FilterMetrics> filters, String name, String type,
+                                      String help, ToDoubleFunction<FilterMetrics> value) {
+        header(out, name, type, help);
+        for (FilterMetrics filter : filters) {
+            sample(out, name, "filter=\"" + filter.getName() + "\"", value.applyAsDouble(filter));
+        }
+    }
+
+    private static void counter(StringBuilder out, String name, long value) {
+        header(out, name, "counter", null);
+        sample(out, name, "", value);
+    }
+
+    private static void gauge(StringBuilder out, String name, double value) {
+        header(out, name, "gauge", null);
+        sample(out, name, "", value);
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        if (help != null) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        }
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.append((long) value);
+        } else {
+            out.append(String.format(Locale.ROOT, "%.9f", value));
+        }
+        out.append('\n');
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.metrics;
+
+import com.example.util.HibernateUtil;
+import com.example.util.HikariConnectionProvider;
+import com.example.util.PoolMetrics;
+import com.example.util.ReplicaSet;
+import org.hibernate.stat.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+
+// JMX-представление метрик сервиса: com.example:type=UserServiceMetrics
+public class UserServiceMetrics implements UserServiceMetricsMXBean {
+    private static final Logger logger = LoggerFactory.getLogger(UserServiceMetrics.class);
+
+    public static final String OBJECT_NAME = "com.example:type=UserServiceMetrics";
+
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new UserServiceMetrics(), name);
+            }
+        } catch (JMException e) {
+            logger.warn("Failed to register metrics MBean: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public Map<String, Long> getOperationCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (OperationMetrics operation : DaoMetrics.operations()) {
+            counts.put(operation.getName(), operation.getLatency().getCount());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getOperationMeanMillis() {
+        Map<String, Double> means = new TreeMap<>();
+        for (OperationMetrics operation : DaoMetrics.operations()) {
+            means.put(operation.getName(), operation.getLatency().getMeanNanos() / 1e6);
+        }
+        return means;
+    }
+
+    @Override
+    public Map<String, Double> getOperationP99Millis() {
+        Map<String, Double> p99 = new TreeMap<>();
+        for (OperationMetrics operation : DaoMetrics.operations()) {
+            p99.put(operation.getName(), operation.getLatency().getPercentileNanos(99) / 1e6);
+        }
+        return p99;
+    }
+
+    @Override
+    public Map<String, Long> getErrorCounts() {
+        Map<String, Long> errors = new TreeMap<>();
+        for (OperationMetrics operation : DaoMetrics.operations()) {
+            operation.getErrorCounts().forEach((type, count) -> errors.put(operation.getName() + ":" + type, count));
+        }
+        return errors;
+    }
+
+    @Override
+    public double getConnectionAcquireP99Millis() {
+        PoolMetrics pool = poolMetrics();
+        return pool == null ? 0 : pool.getAcquireTime().getPercentileNanos(99) / 1e6;
+    }
+
+    @Override
+    public long getConnectionTimeouts() {
+        PoolMetrics pool = poolMetrics();
+        return pool == null ? 0 : pool.getTimeoutCount();
+    }
+
+    @Override
+    public int getActiveConnections() {
+        PoolMetrics pool = poolMetrics();
+        return pool == null ? 0 : pool.getActiveConnections();
+    }
+
+    @Override
+    public int getPendingThreads() {
+        PoolMetrics pool = poolMetrics();
+        return pool == null ? 0 : pool.getPendingThreads();
+    }
+
+    @Override
+    public Map<String, Boolean> getReplicaHealth() {
+        Map<String, Boolean> health = new TreeMap<>();
+        ReplicaSet replicas = replicas();
+        if (replicas != null) {
+            for (ReplicaSet.Replica replica : replicas.getReplicas()) {
+                health.put(replica.getName(), replica.isHealthy());
+            }
+        }
+        return health;
+    }
+
+    @Override
+    public double getSecondLevelCacheHitRatio() {
+        Statistics statistics = statistics();
+        return statistics == null ? 0
+                : ratio(statistics.getSecondLevelCacheHitCount(), statistics.getSecondLevelCacheMissCount());
+    }
+
+    @Override
+    public double getNaturalIdCacheHitRatio() {
+        Statistics statistics = statistics();
+        return statistics == null ? 0
+                : ratio(statistics.getNaturalIdCacheHitCount(), statistics.getNaturalIdCacheMissCount());
+    }
+
+    // Промах - HQL разбирался заново. После старта промахи дают только запросы вне именованных
+    // (Criteria, native); постоянный рост означает, что в текст запроса попадают значения
+    @Override
+    public double getQueryPlanCacheHitRatio() {
+        Statistics statistics = statistics();
+        return statistics == null ? 0
+                : ratio(statistics.getQueryPlanCacheHitCount(), statistics.getQueryPlanCacheMissCount());
+    }
+
+    @Override
+    public long getQueryPlanCacheMisses() {
+        Statistics statistics = statistics();
+        return statistics == null ? 0 : statistics.getQueryPlanCacheMissCount();
+    }
+
+    @Override
+    public Map<String, Double> getFilterNegativeRatios() {
+        Map<String, Double> ratios = new TreeMap<>();
+        for (FilterMetrics filter : DaoMetrics.filters()) {
+            ratios.put(filter.getName(), filter.getChecks() == 0 ? 0 : (double) filter.getNegatives() / filter.getChecks());
+        }
+        return ratios;
+    }
+
+    @Override
+    public Map<String, Long> getFilterFalsePositives() {
+        Map<String, Long> falsePositives = new TreeMap<>();
+        for (FilterMetrics filter : DaoMetrics.filters()) {
+            falsePositives.put(filter.getName(), filter.getFalsePositives());
+        }
+        return falsePositives;
+    }
+
+    @Override
+    public long getQueryExecutionMaxTimeMillis() {
+        Statistics statistics = statistics();
+        return statistics == null ? 0 : statistics.getQueryExecutionMaxTime();
+    }
+
+    @Override
+    public String getQueryExecutionMaxTimeQueryString() {
+        Statistics statistics = statistics();
+        return statistics == null ? null : statistics.getQueryExecutionMaxTimeQueryString();
+    }
+
+    @Override
+    public String dumpPrometheus() {
+        return PrometheusExporter.render();
+    }
+
+    static double ratio(long hits, long misses) {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    // Пока SessionFactory собирается в фоне (или ее сборка упала), серий Hibernate, пула и реплик нет:
+    // обращение к фабрике ждало бы окончания сборки, а после неудачи бросило бы исключение
+    static Statistics statistics() {
+        return HibernateUtil.isReady() ? HibernateUtil.getSessionFactory().getStatistics() : null;
+    }
+
+    static PoolMetrics poolMetrics() {
+        HikariConnectionProvider pool = HibernateUtil.isReady() ? HibernateUtil.getConnectionPool() : null;
+        return pool == null ? null : pool.getMetrics();
+    }
+
+    static ReplicaSet replicas() {
+        return HibernateUtil.isReady() ? HibernateUtil.getReplicas() : null;
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.metrics;
+
+import java.util.Map;
+
+public interface UserServiceMetricsMXBean {
+
+    Map<String, Long> getOperationCounts();
+
+    Map<String, Double> getOperationMeanMillis();
+
+    Map<String, Double> getOperationP99Millis();
+
+    Map<String, Long> getErrorCounts();
+
+    double getConnectionAcquireP99Millis();
+
+    long getConnectionTimeouts();
+
+    int getActiveConnections();
+
+    int getPendingThreads();
+
+    Map<String, Boolean> getReplicaHealth();
+
+    double getSecondLevelCacheHitRatio();
+
+    double getNaturalIdCacheHitRatio();
+
+    double getQueryPlanCacheHitRatio();
+
+    long getQueryPlanCacheMisses();
+
+    // Доля проверок фильтра Блума, ответ на которые дан без БД, по имени фильтра
+    Map<String, Double> getFilterNegativeRatios();
+
+    Map<String, Long> getFilterFalsePositives();
+
+    long getQueryExecutionMaxTimeMillis();
+
+    String getQueryExecutionMaxTimeQueryString();
+
+    String dumpPrometheus();
+}
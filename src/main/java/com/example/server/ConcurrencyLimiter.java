@@ -0,0 +1,60 @@
+package com.example.server;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Ограничивает число одновременных обращений к БД размером пула соединений.
+// Запрос ждет разрешение не дольше acquireTimeoutMs, очередь ожидающих ограничена maxQueued
+public class ConcurrencyLimiter {
+
+    public enum Decision { ACQUIRED, QUEUE_FULL, TIMEOUT }
+
+    private final Semaphore permits;
+    private final int maxConcurrency;
+    private final int maxQueued;
+    private final long acquireTimeoutMs;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder rejectedQueueFull = new LongAdder();
+    private final LongAdder rejectedTimeout = new LongAdder();
+
+    public ConcurrencyLimiter(int maxConcurrency, int maxQueued, long acquireTimeoutMs) {
+        this.permits = new Semaphore(maxConcurrency, true);
+        this.maxConcurrency = maxConcurrency;
+        this.maxQueued = maxQueued;
+        this.acquireTimeoutMs = acquireTimeoutMs;
+    }
+
+    public Decision acquire() throws InterruptedException {
+        if (permits.tryAcquire()) {
+            return Decision.ACQUIRED;
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            rejectedQueueFull.increment();
+            return Decision.QUEUE_FULL;
+        }
+        try {
+            if (permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                return Decision.ACQUIRED;
+            }
+            rejectedTimeout.increment();
+            return Decision.TIMEOUT;
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    public int getInFlight() { return maxConcurrency - permits.availablePermits(); }
+
+    public int getQueued() { return queued.get(); }
+
+    public long getRejectedQueueFull() { return rejectedQueueFull.sum(); }
+
+    public long getRejectedTimeout() { return rejectedTimeout.sum(); }
+}
@@ -0,0 +1,418 @@
+package com.example.server;
+
+import com.example.EmailValidator;
+import com.example.dao.EmailFilter;
+import com.example.dao.UpdateResult;
+import com.example.dao.UpsertResult;
+import com.example.dao.UserDAO;
+import com.example.dao.UserStats;
+import com.example.dao.UserStatsRefresher;
+import com.example.entity.User;
+import com.example.metrics.PrometheusExporter;
+import com.example.metrics.UserServiceMetrics;
+import com.example.util.HibernateUtil;
+import com.example.util.HikariConnectionProvider;
+import com.example.util.ReplicaRouting;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// HTTP/JSON вход в сервис: каждый запрос обрабатывается в своем виртуальном потоке,
+// обращения к БД ограничены ConcurrencyLimiter (429 - очередь переполнена, 503 - пул занят).
+//
+//   GET    /users/{id}             GET /users?email=...      GET /users?after={id}&limit={n}
+//   GET    /users?ids=1,2,3        (до 1000 id за запрос)
+//   POST   /users                  PATCH /users/{id}         DELETE /users/{id}
+//   PUT    /users                  (upsert по email: 201 - создан, 200 - обновлен или без изменений)
+//   GET    /metrics                (Prometheus text format)
+//   GET    /ready                  (200 - SessionFactory готова, 503 - еще стартует)
+//   GET    /stats                  (снимок агрегатов UserStats, без запроса к БД)
+public class UserHttpServer {
+    private static final Logger logger = LoggerFactory.getLogger(UserHttpServer.class);
+
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    private final UserDAO userDao;
+    private final ConcurrencyLimiter limiter;
+    // null - /stats выключен
+    private final UserStatsRefresher stats;
+    private final ObjectMapper mapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public UserHttpServer(UserDAO userDao, ConcurrencyLimiter limiter) {
+        this(userDao, limiter, null);
+    }
+
+    public UserHttpServer(UserDAO userDao, ConcurrencyLimiter limiter, UserStatsRefresher stats) {
+        this.userDao = userDao;
+        this.limiter = limiter;
+        this.stats = stats;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = Integer.getInteger("server.port", 8080);
+        // Hibernate стартует в фоне, сервер принимает соединения сразу; /ready отвечает 200 после старта
+        HibernateUtil.startAsync();
+        Object poolSize = HibernateUtil.getConfiguredSettings()
+                .get(HikariConnectionProvider.CONFIG_PREFIX + "maximumPoolSize");
+        int maxConcurrency = Integer.getInteger("server.maxConcurrency",
+                poolSize != null ? Integer.parseInt(poolSize.toString()) : 10);
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(maxConcurrency,
+                Integer.getInteger("server.maxQueued", 10_000),
+                Long.getLong("server.acquireTimeoutMs", 500));
+
+        UserServiceMetrics.registerMBean();
+        UserDAO userDao = new UserDAO();
+        // Снимок агрегатов для /stats, пересчитывается раз в stats.refreshMs (0 - выключено)
+        long statsRefreshMs = Long.getLong("stats.refreshMs", 60_000);
+        UserStatsRefresher stats = statsRefreshMs > 0
+                ? new UserStatsRefresher(userDao, statsRefreshMs, 10, 30).start()
+                : null;
+        // Фильтр Блума по email: поиск несуществующего email отвечает 404 без запроса к БД
+        EmailFilter emailFilter = Boolean.getBoolean("emailFilter.enabled")
+                ? new EmailFilter(userDao,
+                        Double.parseDouble(System.getProperty("emailFilter.fpp", "0.01")),
+                        Long.getLong("emailFilter.maxMb", 64) << 20,
+                        Long.getLong("emailFilter.rebuildMs", 3_600_000)).start()
+                : null;
+        UserHttpServer server = new UserHttpServer(userDao, limiter, stats);
+        server.start(port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            if (stats != null) {
+                stats.close();
+            }
+            if (emailFilter != null) {
+                emailFilter.close();
+            }
+            HibernateUtil.shutdown();
+        }));
+    }
+
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 1024);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/users", this::handle);
+        server.createContext("/metrics", this::metrics);
+        server.createContext("/ready", this::ready);
+        server.createContext("/stats", this::stats);
+        server.start();
+        logger.info("User HTTP server started on port {}", port);
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            ConcurrencyLimiter.Decision decision = limiter.acquire();
+            if (decision != ConcurrencyLimiter.Decision.ACQUIRED) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendError(exchange, decision == ConcurrencyLimiter.Decision.QUEUE_FULL ? 429 : 503,
+                        "server is overloaded");
+                return;
+            }
+            // X-Client-Id - ключ read-your-writes: после записи клиент какое-то время читает с primary
+            ReplicaRouting.setCaller(exchange.getRequestHeaders().getFirst("X-Client-Id"));
+            try {
+                route(exchange);
+            } finally {
+                ReplicaRouting.clearCaller();
+                limiter.release();
+            }
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sendError(exchange, 503, "interrupted");
+        } catch (RuntimeException e) {
+            logger.error("Request {} {} failed", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+            sendError(exchange, 500, "internal error");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Prometheus scrape, не проходит через лимитер: к БД не обращается
+    private void metrics(HttpExchange exchange) throws IOException {
+        try {
+            StringBuilder text = new StringBuilder(PrometheusExporter.render());
+            text.append("# TYPE http_requests_in_flight gauge\n")
+                    .append("http_requests_in_flight ").append(limiter.getInFlight()).append('\n')
+                    .append("# TYPE http_requests_queued gauge\n")
+                    .append("http_requests_queued ").append(limiter.getQueued()).append('\n')
+                    .append("# TYPE http_requests_rejected_total counter\n")
+                    .append("http_requests_rejected_total{reason=\"queue_full\"} ")
+                    .append(limiter.getRejectedQueueFull()).append('\n')
+                    .append("http_requests_rejected_total{reason=\"timeout\"} ")
+                    .append(limiter.getRejectedTimeout()).append('\n');
+            byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Readiness probe: не трогает БД и не ждет старта Hibernate
+    private void ready(HttpExchange exchange) throws IOException {
+        try {
+            boolean ready = HibernateUtil.isReady();
+            sendJson(exchange, ready ? 200 : 503, Map.of("ready", ready));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // Отдает последний снимок, к БД не обращается и поэтому не проходит через limiter
+    private void stats(HttpExchange exchange) throws IOException {
+        try {
+            UserStats snapshot = stats != null ? stats.getSnapshot() : null;
+            if (snapshot == null) {
+                sendError(exchange, stats == null ? 404 : 503,
+                        stats == null ? "stats are disabled" : "stats are not ready yet");
+            } else {
+                sendJson(exchange, 200, snapshot);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void route(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        Long id = pathId(exchange);
+
+        if (id == null) {
+            switch (method) {
+                case "GET":
+                    list(exchange);
+                    return;
+                case "POST":
+                    create(exchange);
+                    return;
+                case "PUT":
+                    upsert(exchange);
+                    return;
+                default:
+                    sendError(exchange, 405, "method not allowed");
+                    return;
+            }
+        }
+
+        switch (method) {
+            case "GET":
+                Optional<User> user = userDao.getUserById(id);
+                if (user.isPresent()) {
+                    sendJson(exchange, 200, user.get());
+                } else {
+                    sendError(exchange, 404, "user not found");
+                }
+                return;
+            case "PATCH":
+            case "PUT":
+                update(exchange, id);
+                return;
+            case "DELETE":
+                if (userDao.deleteUser(id)) {
+                    exchange.sendResponseHeaders(204, -1);
+                } else {
+                    sendError(exchange, 404, "user not found");
+                }
+                return;
+            default:
+                sendError(exchange, 405, "method not allowed");
+        }
+    }
+
+    private void list(HttpExchange exchange) throws IOException {
+        Map<String, String> query = queryParams(exchange);
+        String email = query.get("email");
+        if (email != null) {
+            Optional<User> user = userDao.getUserByEmail(email);
+            if (user.isPresent()) {
+                sendJson(exchange, 200, user.get());
+            } else {
+                sendError(exchange, 404, "user not found");
+            }
+            return;
+        }
+        String ids = query.get("ids");
+        if (ids != null) {
+            List<Long> parsed = new ArrayList<>();
+            for (String id : ids.split(",")) {
+                if (!id.isBlank()) {
+                    parsed.add(parseLong(id.trim()));
+                }
+            }
+            if (parsed.size() > MAX_PAGE_SIZE) {
+                throw new IllegalArgumentException("at most " + MAX_PAGE_SIZE + " ids per request");
+            }
+            sendJson(exchange, 200, userDao.getUsersByIds(parsed));
+            return;
+        }
+        Long after = query.containsKey("after") ? parseLong(query.get("after")) : null;
+        int limit = query.containsKey("limit")
+                ? (int) Math.max(1, Math.min(parseLong(query.get("limit")), MAX_PAGE_SIZE))
+                : DEFAULT_PAGE_SIZE;
+        sendJson(exchange, 200, userDao.getUsersPage(after, limit));
+    }
+
+    private void create(HttpExchange exchange) throws IOException {
+        JsonNode body = readBody(exchange);
+        String name = text(body, "name");
+        String email = text(body, "email");
+        if (name == null || name.isEmpty() || email == null || !EmailValidator.isValid(email)) {
+            sendError(exchange, 400, "name and a valid email are required");
+            return;
+        }
+        Integer age = body.hasNonNull("age") ? body.get("age").asInt() : null;
+
+        Optional<Long> id = userDao.createUser(new User(name, email, age));
+        if (id.isPresent()) {
+            sendJson(exchange, 201, Map.of("id", id.get()));
+        } else {
+            sendError(exchange, 409, "user could not be created, email might already exist");
+        }
+    }
+
+    // Для синхронизации: повторная отправка существующего пользователя - обычный ответ, а не 409
+    private void upsert(HttpExchange exchange) throws IOException {
+        JsonNode body = readBody(exchange);
+        String name = text(body, "name");
+        String email = text(body, "email");
+        if (name == null || name.isEmpty() || email == null || !EmailValidator.isValid(email)) {
+            sendError(exchange, 400, "name and a valid email are required");
+            return;
+        }
+        Integer age = body.hasNonNull("age") ? body.get("age").asInt() : null;
+
+        UpsertResult result = userDao.upsertUser(new User(name, email, age));
+        if (result.getStatus() == UpsertResult.Status.FAILED) {
+            sendError(exchange, 409, "user could not be saved: " + result.getReason());
+        } else {
+            sendJson(exchange, result.getStatus() == UpsertResult.Status.INSERTED ? 201 : 200,
+                    Map.of("id", result.getId(), "status", result.getStatus()));
+        }
+    }
+
+    private void update(HttpExchange exchange, long id) throws IOException {
+        JsonNode body = readBody(exchange);
+        String email = text(body, "email");
+        if (email != null && !EmailValidator.isValid(email)) {
+            sendError(exchange, 400, "invalid email");
+            return;
+        }
+        Integer age = body.hasNonNull("age") ? body.get("age").asInt() : null;
+        Long version = body.hasNonNull("version") ? body.get("version").asLong() : null;
+
+        UpdateResult result = userDao.updateUserFields(id, text(body, "name"), email, age, version);
+        switch (result) {
+            case UPDATED:
+                sendJson(exchange, 200, Map.of("id", id));
+                break;
+            case NOT_FOUND:
+                sendError(exchange, 404, "user not found");
+                break;
+            case VERSION_CONFLICT:
+                sendError(exchange, 409, "user was modified concurrently");
+                break;
+            case NO_CHANGES:
+                sendError(exchange, 400, "nothing to update");
+                break;
+            default:
+                sendError(exchange, 409, "user could not be updated, email might already exist");
+        }
+    }
+
+    private Long pathId(HttpExchange exchange) {
+        String path = exchange.getRequestURI().getPath();
+        String rest = path.substring("/users".length());
+        if (rest.isEmpty() || rest.equals("/")) {
+            return null;
+        }
+        return parseLong(rest.substring(1));
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid number: " + value);
+        }
+    }
+
+    private static Map<String, String> queryParams(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    private JsonNode readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            JsonNode node = mapper.readTree(in);
+            if (node == null || !node.isObject()) {
+                throw new IllegalArgumentException("JSON object expected");
+            }
+            return node;
+        } catch (com.fasterxml.jackson.core.JsonProcessingException e) {
+            throw new IllegalArgumentException("malformed JSON");
+        }
+    }
+
+    private static String text(JsonNode body, String field) {
+        return body.hasNonNull(field) ? body.get(field).asText().trim() : null;
+    }
+
+    private void sendJson(HttpExchange exchange, int status, Object value) throws IOException {
+        byte[] bytes = mapper.writeValueAsBytes(value);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        sendJson(exchange, status, Map.of("error", message));
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Фильтр Блума по строкам: mightContain == false - строки точно не добавляли, true - возможно добавляли
+// (ложное срабатывание с вероятностью около fpp). Удалять нельзя, поэтому владелец периодически
+// строит фильтр заново. Добавление и проверка без блокировок: биты только устанавливаются (CAS)
+public final class BloomFilter {
+
+    private final AtomicLongArray words;
+    private final long bitCount;
+    private final int hashCount;
+
+    private BloomFilter(long bitCount, int hashCount) {
+        this.words = new AtomicLongArray((int) ((bitCount + 63) >>> 6));
+        this.bitCount = (long) words.length() << 6;
+        this.hashCount = hashCount;
+    }
+
+    // Размер по стандартным формулам: m = -n ln p / (ln 2)^2, k = m / n * ln 2.
+    // Не больше maxBytes: тогда фильтр меньше нужного и fpp выше заданной
+    public static BloomFilter create(long expectedInsertions, double fpp, long maxBytes) {
+        if (fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("fpp must be in (0, 1): " + fpp);
+        }
+        long n = Math.max(1, expectedInsertions);
+        long bits = (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        // AtomicLongArray ограничен Integer.MAX_VALUE словами
+        long maxBits = Math.min(Math.max(64, maxBytes * 8), (long) Integer.MAX_VALUE << 6);
+        bits = Math.max(64, Math.min(bits, maxBits));
+        int hashes = (int) Math.max(1, Math.min(16, Math.round((double) bits / n * Math.log(2))));
+        return new BloomFilter(bits, hashes);
+    }
+
+    public void put(String value) {
+        long hash = hash64(value);
+        long h1 = hash;
+        long h2 = fmix64(hash ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            setBit(Math.floorMod(h1 + i * h2, bitCount));
+        }
+    }
+
+    public boolean mightContain(String value) {
+        long hash = hash64(value);
+        long h1 = hash;
+        long h2 = fmix64(hash ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void setBit(long bit) {
+        int index = (int) (bit >>> 6);
+        long mask = 1L << bit;
+        long word = words.get(index);
+        while ((word & mask) == 0 && !words.compareAndSet(index, word, word | mask)) {
+            word = words.get(index);
+        }
+    }
+
+    // Оценка текущей вероятности ложного срабатывания по доле установленных бит: (X / m)^k.
+    // Проход по всему массиву, для метрик, а не для горячего пути
+    public double estimatedFpp() {
+        long set = 0;
+        for (int i = 0; i < words.length(); i++) {
+            set += Long.bitCount(words.get(i));
+        }
+        return Math.pow((double) set / bitCount, hashCount);
+    }
+
+    public long getBitCount() { return bitCount; }
+
+    public int getHashCount() { return hashCount; }
+
+    public long getSizeBytes() { return bitCount >>> 3; }
+
+    // FNV-1a по символам с финализатором murmur3: 64 бита (String.hashCode для больших фильтров мало)
+    // и без выделения памяти на проверку
+    static long hash64(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return fmix64(hash);
+    }
+
+    private static long fmix64(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -1,23 +1,142 @@
 package com.example.util;
 
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.hibernate.TransactionException;
 import org.hibernate.boot.Metadata;
 import org.hibernate.boot.MetadataSources;
 import org.hibernate.boot.registry.StandardServiceRegistry;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
-import org.hibernate.service.ServiceRegistry;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.context.internal.ManagedSessionContext;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class HibernateUtil {
+    private static final Logger logger = LoggerFactory.getLogger(HibernateUtil.class);
+
+    private static final int DEFAULT_BATCH_SIZE = 20;
+
+    // -Dboot.fast=true: схема не сверяется с БД (ее ведут миграции, см. SchemaMigrations),
+    // метаданные JDBC при старте не читаются
+    public static final String FAST_BOOT = "boot.fast";
+
+    // Сборка SessionFactory всех шардов (индекс - номер шарда, см. Shards): null - еще не начиналась
+    private static volatile CompletableFuture<List<SessionFactory>> bootstrap;
+
+    // Запускает сборку SessionFactory в фоновом потоке и сразу возвращается: CLI и HTTP-сервер
+    // отвечают, пока Hibernate стартует, первое обращение к БД дождется готовности.
+    // Без вызова startAsync сборка идет лениво, в потоке первого обращения
+    public static CompletableFuture<SessionFactory> startAsync() {
+        return bootstrap(true).thenApply(factories -> factories.get(0));
+    }
+
+    private static CompletableFuture<List<SessionFactory>> bootstrap(boolean background) {
+        CompletableFuture<List<SessionFactory>> current = bootstrap;
+        if (current != null) {
+            return current;
+        }
+        CompletableFuture<List<SessionFactory>> future;
+        synchronized (HibernateUtil.class) {
+            if (bootstrap != null) {
+                return bootstrap;
+            }
+            future = new CompletableFuture<>();
+            bootstrap = future;
+        }
+        Runnable build = () -> {
+            try {
+                future.complete(buildShards());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        };
+        if (background) {
+            Thread thread = new Thread(build, "hibernate-bootstrap");
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            build.run();
+        }
+        return future;
+    }
+
+    // Шард 0 собирается в текущем потоке, остальные параллельно: каждая сборка в основном ждет БД
+    private static List<SessionFactory> buildShards() {
+        Map<String, Object> configured = getConfiguredSettings();
+        List<String> urls = Shards.urls(configured.get(Shards.URLS));
+        if (urls.isEmpty()) {
+            return List.of(buildSessionFactory(Map.of()));
+        }
 
-    private static final SessionFactory sessionFactory = buildSessionFactory();
+        Object poolName = configured.get("hibernate.hikari.poolName");
+        List<CompletableFuture<SessionFactory>> shards = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < urls.size(); i++) {
+                Map<String, String> settings = new HashMap<>();
+                settings.put(AvailableSettings.URL, urls.get(i));
+                settings.put(Shards.INDEX, String.valueOf(i + 1));
+                settings.put("hibernate.hikari.poolName", (poolName == null ? "hibernate" : poolName) + "-shard-" + (i + 1));
+                shards.add(CompletableFuture.supplyAsync(() -> buildSessionFactory(settings), executor));
+            }
+            shards.add(0, CompletableFuture.completedFuture(buildSessionFactory(Map.of(Shards.INDEX, "0"))));
+        } catch (RuntimeException e) {
+            shards.add(0, CompletableFuture.failedFuture(e));
+        }
 
-    private static SessionFactory buildSessionFactory() {
+        List<SessionFactory> factories = new ArrayList<>();
+        Throwable failure = null;
+        for (CompletableFuture<SessionFactory> shard : shards) {
+            try {
+                factories.add(shard.join());
+            } catch (CompletionException e) {
+                failure = failure == null ? e.getCause() : failure;
+            }
+        }
+        if (failure != null) {
+            // Частично собранный набор шардов не нужен: без любого шарда часть пользователей недоступна
+            factories.forEach(SessionFactory::close);
+            throw new HibernateException("Shard SessionFactory creation failed", failure);
+        }
+        return List.copyOf(factories);
+    }
+
+    private static SessionFactory buildSessionFactory(Map<String, String> shardSettings) {
+        long started = System.nanoTime();
         try {
-            // Создаем стандартный реестр сервисов из hibernate.cfg.xml
-            StandardServiceRegistry standardRegistry =
-                    new StandardServiceRegistryBuilder()
-                            .configure("hibernate.cfg.xml")
-                            .build();
+            // Создаем стандартный реестр сервисов из hibernate.cfg.xml,
+            // свойства hibernate.* из -D переопределяют значения из файла
+            StandardServiceRegistryBuilder builder = new StandardServiceRegistryBuilder()
+                    .configure("hibernate.cfg.xml");
+            if (Boolean.getBoolean(FAST_BOOT)) {
+                builder.applySettings(fastBootSettings());
+            }
+            builder.applySettings(systemOverrides());
+            builder.applySettings(shardSettings);
+
+            StandardServiceRegistry standardRegistry = builder.build();
+
+            // Явный шаг миграции до метаданных: validate должен видеть уже обновленную схему
+            if (Boolean.getBoolean(SchemaMigrations.MIGRATE_ON_START)) {
+                SchemaMigrations.migrate(standardRegistry.getService(ConfigurationService.class).getSettings());
+            }
 
             // Создаем метаданные из реестра сервисов
             Metadata metadata = new MetadataSources(standardRegistry)
@@ -25,24 +144,185 @@ public class HibernateUtil {
                     .build();
 
             // Создаем SessionFactory
-            return metadata.getSessionFactoryBuilder().build();
+            SessionFactory factory = metadata.getSessionFactoryBuilder().build();
+            if (shardSettings.containsKey(Shards.INDEX)) {
+                logger.info("SessionFactory of shard {} ready in {} ms", shardSettings.get(Shards.INDEX),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            } else {
+                logger.info("SessionFactory ready in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            }
+            return factory;
 
         } catch (Throwable ex) {
-            System.err.println("Initial SessionFactory creation failed: " + ex);
-            throw new ExceptionInInitializerError(ex);
+            logger.error("Initial SessionFactory creation failed: {}", ex.toString());
+            throw ex;
         }
     }
 
+    // То, что Hibernate при старте узнает из метаданных JDBC, для PostgreSQL задано явно.
+    // Bean Validation отключена: ограничений на сущностях нет, а поиск провайдера стоит времени
+    private static Map<String, String> fastBootSettings() {
+        Map<String, String> settings = new HashMap<>();
+        settings.put(AvailableSettings.HBM2DDL_AUTO, "none");
+        settings.put("hibernate.temp.use_jdbc_metadata_defaults", "false");
+        settings.put(AvailableSettings.USE_SCROLLABLE_RESULTSET, "true");
+        settings.put(AvailableSettings.USE_GET_GENERATED_KEYS, "true");
+        settings.put(AvailableSettings.JPA_VALIDATION_MODE, "none");
+        return settings;
+    }
+
+    private static Map<String, String> systemOverrides() {
+        Map<String, String> overrides = new HashMap<>();
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("hibernate.")) {
+                overrides.put(name, System.getProperty(name));
+            }
+        }
+        return overrides;
+    }
+
+    // Настройки из hibernate.cfg.xml с переопределениями из -D, без сборки SessionFactory и без БД:
+    // сервисы реестра создаются лениво, соединений его сборка не открывает
+    public static Map<String, Object> getConfiguredSettings() {
+        StandardServiceRegistry registry = new StandardServiceRegistryBuilder()
+                .configure("hibernate.cfg.xml")
+                .applySettings(systemOverrides())
+                .build();
+        try {
+            Map<?, ?> settings = registry.getService(ConfigurationService.class).getSettings();
+            Map<String, Object> result = new HashMap<>();
+            settings.forEach((key, value) -> result.put(key.toString(), value));
+            return result;
+        } finally {
+            StandardServiceRegistryBuilder.destroy(registry);
+        }
+    }
+
+    public static boolean isReady() {
+        CompletableFuture<List<SessionFactory>> current = bootstrap;
+        return current != null && current.isDone() && !current.isCompletedExceptionally();
+    }
+
+    public static int getJdbcBatchSize() {
+        Object value = getSessionFactory().getProperties().get(AvailableSettings.STATEMENT_BATCH_SIZE);
+        return value == null ? DEFAULT_BATCH_SIZE : Integer.parseInt(value.toString());
+    }
+
+    // Пул соединений, если используется HikariConnectionProvider, иначе null
+    public static HikariConnectionProvider getConnectionPool() {
+        ConnectionProvider provider = ((SessionFactoryImplementor) getSessionFactory())
+                .getServiceRegistry().getService(ConnectionProvider.class);
+        return provider != null && provider.isUnwrappableAs(HikariConnectionProvider.class)
+                ? provider.unwrap(HikariConnectionProvider.class)
+                : null;
+    }
+
+    // Read-реплики, если заданы hibernate.replica.urls, иначе null
+    public static ReplicaSet getReplicas() {
+        HikariConnectionProvider pool = getConnectionPool();
+        return pool == null ? null : pool.getReplicas();
+    }
+
+    // Unit of work: все вызовы DAO внутри work используют одну сессию, одно соединение и один commit.
+    // Вложенный вызов присоединяется к уже открытой транзакции. Если какой-то метод DAO внутри
+    // завершился ошибкой, вся транзакция откатывается и бросается TransactionException: результат work
+    // (id, статусы) относился бы к строкам, которых в БД нет
+    public static <T> T inTransaction(Function<Session, T> work) {
+        return inTransaction(0, work);
+    }
+
+    // Транзакция на одном шарде: распределенных транзакций нет, поэтому внутри unit of work
+    // одного шарда открыть unit of work другого нельзя
+    public static <T> T inTransaction(int shard, Function<Session, T> work) {
+        SessionFactory factory = getSessionFactory(shard);
+        if (ManagedSessionContext.hasBind(factory)) {
+            return work.apply(factory.getCurrentSession());
+        }
+        int current = getCurrentShard();
+        if (current >= 0) {
+            throw new IllegalStateException("Unit of work of shard " + current + " is already open, shard " + shard + " requested");
+        }
+
+        Session session = factory.openSession();
+        ManagedSessionContext.bind(session);
+        Transaction transaction = null;
+        try {
+            transaction = session.beginTransaction();
+            T result = work.apply(session);
+            if (transaction.getRollbackOnly()) {
+                transaction.rollback();
+                throw new TransactionException("Unit of work was rolled back: a call inside it failed");
+            }
+            transaction.commit();
+            ReplicaRouting.recordWrite();
+            return result;
+        } catch (RuntimeException e) {
+            if (transaction != null && transaction.isActive()) {
+                transaction.rollback();
+            }
+            throw e;
+        } finally {
+            ManagedSessionContext.unbind(factory);
+            session.close();
+        }
+    }
+
+    public static void runInTransaction(Consumer<Session> work) {
+        inTransaction(session -> {
+            work.accept(session);
+            return null;
+        });
+    }
+
+    public static boolean hasCurrentSession() {
+        return getCurrentShard() >= 0;
+    }
+
+    // Шард открытого в этом потоке unit of work, -1 - его нет
+    public static int getCurrentShard() {
+        List<SessionFactory> factories = getSessionFactories();
+        for (int i = 0; i < factories.size(); i++) {
+            if (ManagedSessionContext.hasBind(factories.get(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     public static SessionFactory getSessionFactory() {
-        if (sessionFactory == null) {
-            buildSessionFactory();
+        return getSessionFactory(0);
+    }
+
+    public static SessionFactory getSessionFactory(int shard) {
+        return getSessionFactories().get(shard);
+    }
+
+    public static int getShardCount() {
+        return getSessionFactories().size();
+    }
+
+    private static List<SessionFactory> getSessionFactories() {
+        try {
+            return bootstrap(false).join();
+        } catch (CompletionException e) {
+            throw new HibernateException("SessionFactory is not available", e.getCause());
         }
-        return sessionFactory;
     }
 
+    // Сборку, которая еще идет, не ждем: фабрика закроется, как только будет готова.
+    // После shutdown следующее обращение соберет SessionFactory заново
     public static void shutdown() {
-        if (sessionFactory != null && !sessionFactory.isClosed()) {
-            sessionFactory.close();
+        CompletableFuture<List<SessionFactory>> current;
+        synchronized (HibernateUtil.class) {
+            current = bootstrap;
+            bootstrap = null;
+        }
+        if (current != null) {
+            current.thenAccept(factories -> factories.forEach(factory -> {
+                if (!factory.isClosed()) {
+                    factory.close();
+                }
+            }));
         }
     }
 }
\ No newline at end of file
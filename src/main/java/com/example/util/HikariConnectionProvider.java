@@ -0,0 +1,160 @@
+package com.example.util;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.spi.Configurable;
+import org.hibernate.service.spi.Stoppable;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+// ConnectionProvider на HikariCP. Настройки пула берутся из свойств с префиксом hibernate.hikari.
+// (например hibernate.hikari.maximumPoolSize), свойства драйвера - hibernate.hikari.dataSource.*
+// Если заданы hibernate.replica.urls, чтения внутри ReplicaRouting.enterRead уходят на реплики (ReplicaSet)
+public class HikariConnectionProvider implements ConnectionProvider, Configurable, Stoppable {
+
+    public static final String CONFIG_PREFIX = "hibernate.hikari.";
+
+    private HikariDataSource dataSource;
+    private ReplicaSet replicas;
+    private final PoolMetrics metrics = new PoolMetrics();
+
+    // Configurable и Wrapped в Hibernate 5 объявлены с сырыми Map и Class
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void configure(Map configurationValues) {
+        configureWith(configurationValues);
+    }
+
+    private void configureWith(Map<?, ?> configurationValues) {
+        try {
+            Properties properties = toHikariProperties(configurationValues);
+            HikariConfig config = new HikariConfig(properties);
+            config.setMetricsTrackerFactory(metrics);
+            dataSource = new HikariDataSource(config);
+
+            // Реплики (и маршрутизация на них) есть только у основной БД, шарды 1..N читают с себя
+            if (Shards.index(configurationValues.get(Shards.INDEX)) == 0) {
+                List<String> replicaUrls = replicaUrls(configurationValues.get(ReplicaSet.URLS));
+                if (!replicaUrls.isEmpty()) {
+                    replicas = new ReplicaSet(replicaUrls, properties,
+                            ReplicaSet.parseStrategy(configurationValues.get(ReplicaSet.ROUTING)),
+                            longSetting(configurationValues, ReplicaSet.HEALTH_CHECK_MS, 5000));
+                }
+                ReplicaRouting.configure(replicas,
+                        longSetting(configurationValues, ReplicaSet.READ_YOUR_WRITES_MS, 0));
+            }
+        } catch (Exception e) {
+            stop();
+            throw new HibernateException("Failed to start connection pool", e);
+        }
+    }
+
+    private static List<String> replicaUrls(Object value) {
+        List<String> urls = new ArrayList<>();
+        if (value != null) {
+            for (String url : value.toString().split(",")) {
+                if (!url.isBlank()) {
+                    urls.add(url.trim());
+                }
+            }
+        }
+        return urls;
+    }
+
+    private static long longSetting(Map<?, ?> settings, String name, long defaultValue) {
+        Object value = settings.get(name);
+        return value == null ? defaultValue : Long.parseLong(value.toString().trim());
+    }
+
+    static Properties toHikariProperties(Map<?, ?> settings) {
+        Properties properties = new Properties();
+        copy(settings, AvailableSettings.URL, properties, "jdbcUrl");
+        copy(settings, AvailableSettings.USER, properties, "username");
+        copy(settings, AvailableSettings.PASS, properties, "password");
+        copy(settings, AvailableSettings.DRIVER, properties, "driverClassName");
+        copy(settings, AvailableSettings.AUTOCOMMIT, properties, "autoCommit");
+
+        for (Map.Entry<?, ?> entry : settings.entrySet()) {
+            String key = String.valueOf(entry.getKey());
+            if (key.startsWith(CONFIG_PREFIX)) {
+                properties.setProperty(key.substring(CONFIG_PREFIX.length()), String.valueOf(entry.getValue()));
+            }
+        }
+        return properties;
+    }
+
+    private static void copy(Map<?, ?> settings, String from, Properties properties, String to) {
+        Object value = settings.get(from);
+        if (value != null) {
+            properties.setProperty(to, value.toString());
+        }
+    }
+
+    public PoolMetrics getMetrics() { return metrics; }
+
+    public int getMaximumPoolSize() { return dataSource.getMaximumPoolSize(); }
+
+    // null, если реплики не настроены
+    public ReplicaSet getReplicas() { return replicas; }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (replicas != null && ReplicaRouting.isReplicaRead()) {
+            Connection connection = replicas.getConnection();
+            if (connection != null) {
+                return connection;
+            }
+        }
+        return dataSource.getConnection();
+    }
+
+    @Override
+    public void closeConnection(Connection connection) throws SQLException {
+        connection.close();
+    }
+
+    @Override
+    public boolean supportsAggressiveRelease() {
+        return false;
+    }
+
+    // Контракт Wrapped: сам провайдер отдается под любым своим типом (ConnectionProvider, Object, ...)
+    @Override
+    @SuppressWarnings("rawtypes")
+    public boolean isUnwrappableAs(Class unwrapType) {
+        Class<?> type = unwrapType;
+        return type.isAssignableFrom(getClass()) || type.isAssignableFrom(HikariDataSource.class);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> unwrapType) {
+        if (unwrapType.isAssignableFrom(getClass())) {
+            return (T) this;
+        }
+        if (unwrapType.isAssignableFrom(HikariDataSource.class)) {
+            return (T) dataSource;
+        }
+        throw new UnknownUnwrapTypeException(unwrapType);
+    }
+
+    @Override
+    public void stop() {
+        if (replicas != null) {
+            replicas.close();
+        }
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+}
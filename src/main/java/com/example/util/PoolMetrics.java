@@ -0,0 +1,66 @@
+package com.example.util;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Метрики пула: время ожидания соединения, время удержания, таймауты получения
+public class PoolMetrics implements MetricsTrackerFactory {
+
+    private final LatencyHistogram acquireTime = new LatencyHistogram();
+    private final LatencyHistogram usageTime = new LatencyHistogram();
+    private final LatencyHistogram creationTime = new LatencyHistogram();
+    private final LongAdder timeouts = new LongAdder();
+    private volatile PoolStats poolStats;
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.poolStats = poolStats;
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+                creationTime.record(TimeUnit.MILLISECONDS.toNanos(connectionCreatedMillis));
+            }
+
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquireTime.record(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                usageTime.record(TimeUnit.MILLISECONDS.toNanos(elapsedBorrowedMillis));
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeouts.increment();
+            }
+        };
+    }
+
+    public LatencyHistogram getAcquireTime() { return acquireTime; }
+
+    public LatencyHistogram getUsageTime() { return usageTime; }
+
+    public LatencyHistogram getCreationTime() { return creationTime; }
+
+    public long getTimeoutCount() { return timeouts.sum(); }
+
+    public int getActiveConnections() { return poolStats == null ? 0 : poolStats.getActiveConnections(); }
+
+    public int getIdleConnections() { return poolStats == null ? 0 : poolStats.getIdleConnections(); }
+
+    public int getTotalConnections() { return poolStats == null ? 0 : poolStats.getTotalConnections(); }
+
+    public int getPendingThreads() { return poolStats == null ? 0 : poolStats.getPendingThreads(); }
+
+    @Override
+    public String toString() {
+        return String.format("[Pool INFO] active = %d, idle = %d, pending = %d, timeouts = %d, acquire: %s",
+                getActiveConnections(), getIdleConnections(), getPendingThreads(), getTimeoutCount(), acquireTime);
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.util;
+
+import org.hibernate.HibernateException;
+import org.hibernate.JDBCException;
+import org.hibernate.exception.JDBCConnectionException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Маршрутизация чтений на реплики. Соединение Hibernate берет лениво, на первом запросе,
+// поэтому признак "читаем с реплики" живет в ThreadLocal на время работы read-сессии.
+//
+// Read-your-writes (hibernate.replica.readYourWritesMs > 0): вызывающий, помеченный setCaller,
+// после своей записи какое-то время читает с primary, чтобы не увидеть отставшую реплику
+public final class ReplicaRouting {
+
+    // Чтобы карта последних записей не росла бесконечно
+    private static final int MAX_TRACKED_CALLERS = 10_000;
+
+    private static final ThreadLocal<Boolean> replicaRead = new ThreadLocal<>();
+    private static final ThreadLocal<Object> caller = new ThreadLocal<>();
+    private static final Map<Object, Long> lastWriteNanos = new ConcurrentHashMap<>();
+
+    private static volatile ReplicaSet replicas;
+    private static volatile long pinNanos;
+
+    private ReplicaRouting() {
+    }
+
+    static void configure(ReplicaSet replicaSet, long readYourWritesMs) {
+        replicas = replicaSet;
+        pinNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, readYourWritesMs));
+        lastWriteNanos.clear();
+    }
+
+    public static void setCaller(Object key) {
+        caller.set(key);
+    }
+
+    public static void clearCaller() {
+        caller.remove();
+    }
+
+    // Чтобы передать вызывающего в другой поток (параллельное чтение шардов)
+    public static Object getCaller() {
+        return caller.get();
+    }
+
+    // true - текущий поток до exitRead читает с реплики
+    public static boolean enterRead() {
+        if (replicas == null || isPinnedToPrimary()) {
+            return false;
+        }
+        replicaRead.set(Boolean.TRUE);
+        return true;
+    }
+
+    public static void exitRead(boolean entered) {
+        if (entered) {
+            replicaRead.remove();
+            ReplicaSet set = replicas;
+            if (set != null) {
+                set.clearServed();
+            }
+        }
+    }
+
+    // Вызывается внутри enterRead/exitRead, когда запрос упал из-за потери соединения с репликой
+    public static void replicaFailed(Throwable cause) {
+        ReplicaSet set = replicas;
+        if (set != null) {
+            set.markServedDown(cause);
+        }
+    }
+
+    // Потеря соединения: класс SQLSTATE 08 или остановка сервера (57P01..57P03)
+    public static boolean isConnectionFailure(HibernateException e) {
+        if (e instanceof JDBCConnectionException) {
+            return true;
+        }
+        String state = e instanceof JDBCException ? ((JDBCException) e).getSQLState() : null;
+        return state != null && (state.startsWith("08") || state.startsWith("57P"));
+    }
+
+    public static void recordWrite() {
+        Object key = caller.get();
+        if (pinNanos == 0 || key == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        lastWriteNanos.put(key, now);
+        if (lastWriteNanos.size() > MAX_TRACKED_CALLERS) {
+            lastWriteNanos.values().removeIf(at -> now - at > pinNanos);
+        }
+    }
+
+    public static boolean isPinnedToPrimary() {
+        Object key = caller.get();
+        if (pinNanos == 0 || key == null) {
+            return false;
+        }
+        Long at = lastWriteNanos.get(key);
+        if (at == null) {
+            return false;
+        }
+        if (System.nanoTime() - at > pinNanos) {
+            lastWriteNanos.remove(key, at);
+            return false;
+        }
+        return true;
+    }
+
+    static boolean isReplicaRead() {
+        return replicaRead.get() != null;
+    }
+}
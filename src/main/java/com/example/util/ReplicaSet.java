@@ -0,0 +1,199 @@
+package com.example.util;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// Пулы read-реплик. Реплика, на которой не удалось получить соединение, выводится из ротации,
+// фоновая проверка возвращает ее после первого успешного подключения.
+// Если живых реплик нет, getConnection возвращает null и чтение идет на primary
+public class ReplicaSet {
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaSet.class);
+
+    // JDBC URL реплик через запятую; логин, пароль и настройки пула - как у primary
+    public static final String URLS = "hibernate.replica.urls";
+    // round_robin (по умолчанию) или least_loaded
+    public static final String ROUTING = "hibernate.replica.routing";
+    public static final String HEALTH_CHECK_MS = "hibernate.replica.healthCheckMs";
+    // > 0 включает read-your-writes: после записи вызывающий читает с primary это время
+    public static final String READ_YOUR_WRITES_MS = "hibernate.replica.readYourWritesMs";
+
+    public enum Strategy { ROUND_ROBIN, LEAST_LOADED }
+
+    public static class Replica {
+        private final String name;
+        private final HikariDataSource dataSource;
+        private final PoolMetrics metrics = new PoolMetrics();
+        private final LongAdder reads = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private volatile boolean healthy = true;
+
+        Replica(String name, HikariConfig config) {
+            this.name = name;
+            config.setMetricsTrackerFactory(metrics);
+            this.dataSource = new HikariDataSource(config);
+        }
+
+        public String getName() { return name; }
+
+        public boolean isHealthy() { return healthy; }
+
+        public long getReads() { return reads.sum(); }
+
+        public long getFailures() { return failures.sum(); }
+
+        public PoolMetrics getMetrics() { return metrics; }
+
+        int load() {
+            HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+            return pool == null ? 0 : pool.getActiveConnections() + pool.getThreadsAwaitingConnection();
+        }
+    }
+
+    private final List<Replica> replicas;
+    private final Strategy strategy;
+    private final AtomicInteger next = new AtomicInteger();
+    private final LongAdder fallbacks = new LongAdder();
+    private final ScheduledExecutorService healthCheck;
+    // Реплика, выдавшая соединение текущему потоку, чтобы вывести ее из ротации при обрыве
+    private final ThreadLocal<Replica> served = new ThreadLocal<>();
+
+    ReplicaSet(List<String> urls, Properties primary, Strategy strategy, long healthCheckMs) {
+        List<Replica> replicas = new ArrayList<>(urls.size());
+        String poolName = primary.getProperty("poolName", "pool");
+        for (int i = 0; i < urls.size(); i++) {
+            Properties properties = new Properties();
+            properties.putAll(primary);
+            properties.setProperty("jdbcUrl", urls.get(i));
+            properties.setProperty("poolName", poolName + "-replica-" + i);
+            // Недоступная при старте реплика не должна мешать запуску сервиса
+            properties.setProperty("initializationFailTimeout", "-1");
+            properties.setProperty("readOnly", "true");
+            replicas.add(new Replica(poolName + "-replica-" + i, new HikariConfig(properties)));
+        }
+        this.replicas = Collections.unmodifiableList(replicas);
+        this.strategy = strategy;
+
+        healthCheck = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, poolName + "-replica-health");
+            thread.setDaemon(true);
+            return thread;
+        });
+        healthCheck.scheduleWithFixedDelay(this::probeUnhealthy, healthCheckMs, healthCheckMs, TimeUnit.MILLISECONDS);
+    }
+
+    static Strategy parseStrategy(Object value) {
+        return value == null ? Strategy.ROUND_ROBIN
+                : Strategy.valueOf(value.toString().trim().toUpperCase(Locale.ROOT));
+    }
+
+    Connection getConnection() {
+        for (int attempt = 0; attempt < replicas.size(); attempt++) {
+            Replica replica = choose();
+            if (replica == null) {
+                break;
+            }
+            try {
+                Connection connection = replica.dataSource.getConnection();
+                replica.reads.increment();
+                served.set(replica);
+                return connection;
+            } catch (SQLException e) {
+                markDown(replica, e.getMessage());
+            }
+        }
+        fallbacks.increment();
+        return null;
+    }
+
+    private Replica choose() {
+        int size = replicas.size();
+        if (strategy == Strategy.LEAST_LOADED) {
+            Replica best = null;
+            int bestLoad = Integer.MAX_VALUE;
+            for (Replica replica : replicas) {
+                if (replica.healthy) {
+                    int load = replica.load();
+                    if (load < bestLoad) {
+                        best = replica;
+                        bestLoad = load;
+                    }
+                }
+            }
+            return best;
+        }
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.healthy) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    // Соединение с репликой оборвалось уже во время запроса
+    void markServedDown(Throwable cause) {
+        Replica replica = served.get();
+        if (replica != null) {
+            markDown(replica, cause.getMessage());
+        }
+    }
+
+    void clearServed() {
+        served.remove();
+    }
+
+    private void markDown(Replica replica, String reason) {
+        replica.failures.increment();
+        if (replica.healthy) {
+            replica.healthy = false;
+            logger.warn("Replica {} taken out of rotation: {}", replica.name, reason);
+        }
+    }
+
+    private void probeUnhealthy() {
+        for (Replica replica : replicas) {
+            if (replica.healthy) {
+                continue;
+            }
+            try (Connection connection = replica.dataSource.getConnection()) {
+                if (connection.isValid(1)) {
+                    replica.healthy = true;
+                    logger.info("Replica {} is back in rotation", replica.name);
+                }
+            } catch (SQLException e) {
+                logger.debug("Replica {} is still unavailable: {}", replica.name, e.getMessage());
+            }
+        }
+    }
+
+    public List<Replica> getReplicas() { return replicas; }
+
+    public Strategy getStrategy() { return strategy; }
+
+    // Чтения, ушедшие на primary из-за отсутствия живых реплик
+    public long getFallbacks() { return fallbacks.sum(); }
+
+    void close() {
+        healthCheck.shutdownNow();
+        for (Replica replica : replicas) {
+            replica.dataSource.close();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.util;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.output.MigrateResult;
+import org.hibernate.cfg.AvailableSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+
+// Версионные миграции схемы (Flyway, src/main/resources/db/migration) вместо hbm2ddl.auto=update.
+// Это отдельный явный шаг: процесс перед выкладкой (main этого класса) или -Dschema.migrate=true
+// при старте приложения. БД, созданная раньше через hbm2ddl, принимается за версию 0 (baseline):
+// V1 написана так, что доводит и такую схему
+public final class SchemaMigrations {
+    private static final Logger logger = LoggerFactory.getLogger(SchemaMigrations.class);
+
+    public static final String MIGRATE_ON_START = "schema.migrate";
+
+    private SchemaMigrations() {
+    }
+
+    // Количество примененных миграций
+    public static int migrate(String url, String user, String password) {
+        return migrate(url, user, password, 0);
+    }
+
+    // shard - номер шарда этой БД (Shards), от него зависит диапазон id
+    public static int migrate(String url, String user, String password, int shard) {
+        MigrateResult result = Flyway.configure()
+                .dataSource(url, user, password)
+                .locations("classpath:db/migration")
+                .placeholders(Map.of("shard", String.valueOf(shard)))
+                .baselineOnMigrate(true)
+                .baselineVersion("0")
+                // Транзакционная advisory-блокировка Flyway держит открытую транзакцию,
+                // и CREATE INDEX CONCURRENTLY ждал бы ее завершения вечно
+                .configuration(Map.of("flyway.postgresql.transactional.lock", "false"))
+                .load()
+                .migrate();
+        logger.info("Schema is at version {}, {} migration(s) applied",
+                result.targetSchemaVersion != null ? result.targetSchemaVersion : result.initialSchemaVersion,
+                result.migrationsExecuted);
+        return result.migrationsExecuted;
+    }
+
+    static int migrate(Map<?, ?> settings) {
+        return migrate(string(settings.get(AvailableSettings.URL)),
+                string(settings.get(AvailableSettings.USER)),
+                string(settings.get(AvailableSettings.PASS)),
+                Shards.index(settings.get(Shards.INDEX)));
+    }
+
+    private static String string(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    // Подключение - из hibernate.cfg.xml с переопределениями hibernate.* из -D; шарды из hibernate.shard.urls
+    // мигрируются следом за основной БД
+    public static void main(String[] args) {
+        Map<String, Object> settings = HibernateUtil.getConfiguredSettings();
+        migrate(settings);
+        List<String> shards = Shards.urls(settings.get(Shards.URLS));
+        for (int i = 0; i < shards.size(); i++) {
+            migrate(shards.get(i), string(settings.get(AvailableSettings.USER)),
+                    string(settings.get(AvailableSettings.PASS)), i + 1);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.util;
+
+import org.hibernate.cfg.AvailableSettings;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Шардирование user_table по нескольким БД. Шард 0 - основная БД (hibernate.connection.url),
+// шарды 1..N - hibernate.shard.urls, у каждого своя SessionFactory и свой пул (HibernateUtil).
+// Без hibernate.shard.urls шард один и все работает как раньше.
+//
+// Строка живет на шарде своего email: создание и поиск по email идут на один шард, а уникальность
+// email обеспечивает ограничение uk_user_table_email этого шарда. В старших битах id - номер шарда
+// (sequence шарда N выдает id начиная с N << 48, миграция V4), поэтому чтение по id тоже идет сразу
+// на нужный шард. Email раскладываются по hash % count: число шардов после начала записи не меняется,
+// а при включении шардирования на существующей БД строки нужно заранее переложить на их шарды
+public final class Shards {
+
+    // JDBC URL шардов 1..N через запятую; логин, пароль и настройки пула - как у основной БД
+    public static final String URLS = "hibernate.shard.urls";
+    // Номер шарда в настройках его SessionFactory, задает HibernateUtil
+    public static final String INDEX = "hibernate.shard.index";
+
+    static final int ID_SHIFT = 48;
+
+    private Shards() {
+    }
+
+    public static int count() {
+        return HibernateUtil.getShardCount();
+    }
+
+    public static int shardOfEmail(String email) {
+        return shardOfEmail(email, count());
+    }
+
+    // С явным числом шардов - для кода, которому не нужна SessionFactory (ReactiveUserRepository)
+    public static int shardOfEmail(String email, int count) {
+        if (email == null || count == 1) {
+            return 0;
+        }
+        // Перемешивание старших бит hashCode (финализатор murmur3): email часто отличаются только хвостом
+        int hash = email.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash, count);
+    }
+
+    // -1 - такого id не может быть ни на одном шарде
+    public static int shardOfId(long id) {
+        return shardOfId(id, count());
+    }
+
+    public static int shardOfId(long id, int count) {
+        long shard = id >>> ID_SHIFT;
+        return shard < count ? (int) shard : -1;
+    }
+
+    // Первый id, который выдает sequence шарда
+    public static long firstId(int shard) {
+        return (long) shard << ID_SHIFT;
+    }
+
+    // JDBC URL всех шардов по номерам, шард 0 - hibernate.connection.url
+    public static List<String> jdbcUrls(Map<String, Object> settings) {
+        List<String> urls = new ArrayList<>();
+        urls.add(settings.get(AvailableSettings.URL).toString());
+        urls.addAll(urls(settings.get(URLS)));
+        return urls;
+    }
+
+    static List<String> urls(Object value) {
+        List<String> urls = new ArrayList<>();
+        if (value != null) {
+            for (String url : value.toString().split(",")) {
+                if (!url.isBlank()) {
+                    urls.add(url.trim());
+                }
+            }
+        }
+        return urls;
+    }
+
+    static int index(Object value) {
+        return value == null ? 0 : Integer.parseInt(value.toString().trim());
+    }
+}
@@ -0,0 +1,18 @@
+-- Схема, которую раньше создавал hbm2ddl.auto=update. Существующая БД принимается за версию 0 (baseline),
+-- и эта миграция доводит ее до текущей схемы: старая таблица была с IDENTITY id, без sequence и version
+CREATE SEQUENCE IF NOT EXISTS user_table_seq START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE IF NOT EXISTS user_table (
+    id         BIGINT       NOT NULL PRIMARY KEY,
+    name       VARCHAR(100) NOT NULL,
+    email      VARCHAR(150) NOT NULL,
+    age        INTEGER,
+    created_at TIMESTAMP    NOT NULL,
+    version    BIGINT       NOT NULL DEFAULT 0,
+    CONSTRAINT uk_user_table_email UNIQUE (email)
+);
+
+-- id теперь выдает user_table_seq (V2 сдвигает ее за MAX(id)), генератор IDENTITY/serial больше не нужен
+ALTER TABLE user_table ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE user_table ALTER COLUMN id DROP DEFAULT;
+ALTER TABLE user_table ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT 0;
@@ -0,0 +1,4 @@
+-- Строки, созданные до перехода на sequence (IDENTITY), не должны пересекаться с пулом id.
+-- Раньше это выполнялось при каждом старте в HibernateUtil
+SELECT setval('user_table_seq', (SELECT COALESCE(MAX(id), 0) FROM user_table) + 50)
+WHERE (SELECT last_value FROM user_table_seq) < (SELECT COALESCE(MAX(id), 0) FROM user_table);
@@ -0,0 +1,11 @@
+-- Индексы под UserDAO.searchUsers. CONCURRENTLY - без блокировки записи на время построения,
+-- поэтому Flyway выполняет эту миграцию вне транзакции.
+-- id вторым ключом: ORDER BY created_at, id (и age, id) с LIMIT читается прямо из индекса, без сортировки
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_user_table_created_at ON user_table (created_at, id);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_user_table_age ON user_table (age, id);
+
+-- Поиск email без учета регистра: lower(email) = ?
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_user_table_email_lower ON user_table (lower(email));
+
+-- Префикс имени: name LIKE 'abc%' использует индекс при любой collation базы
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_user_table_name_pattern ON user_table (name text_pattern_ops);
@@ -0,0 +1,5 @@
+-- Номер шарда в старших битах id (com.example.util.Shards): sequence шарда N начинает с N << 48.
+-- Шард передается placeholder'ом (SchemaMigrations), на шарде 0 и без шардирования ничего не меняется.
+-- Hibernate (pooled, allocationSize 50) берет nextval как верхнюю границу пула: первые id - (N << 48) + 1..50
+SELECT setval('user_table_seq', (CAST(${shard} AS bigint) << 48) + 50, false)
+WHERE ${shard} > 0 AND (SELECT last_value FROM user_table_seq) < (CAST(${shard} AS bigint) << 48);
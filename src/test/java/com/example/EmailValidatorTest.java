@@ -0,0 +1,98 @@
+package com.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Однопроходный EmailValidator должен принимать ровно те строки, что и прежний regex
+class EmailValidatorTest {
+
+    // Эталон - паттерн, который был в EmailValidator до однопроходной реализации
+    private static final Pattern REFERENCE = Pattern.compile(
+            "^[a-zA-Z0-9_+&*-]+(?:\\.[a-zA-Z0-9_+&*-]+)*@(?:[a-zA-Z0-9-]+\\.)+[a-zA-Z]{2,7}$");
+
+    private static final String ALPHABET = "abcXYZ019_+&*-.@ !#%é\t";
+    private static final int RANDOM_SAMPLES = 1_000_000;
+
+    // Длинные домены из множества меток не берем: regex на них падает с StackOverflowError
+    private static final List<String> EDGE_CASES = Arrays.asList(
+            null, "", " ", "a@b.co", "a@b.c", "a@b.abcdefg", "a@b.abcdefgh", "a@b.c0",
+            "a.b@c.de", ".a@c.de", "a.@c.de", "a..b@c.de", "a@.c.de", "a@c..de", "a@c.de.",
+            "a@c", "@c.de", "a@", "a@@c.de", "a@c.de\n", " a@c.de", "A_+&*-z@X-1.Y-2.ORG",
+            "a@-.de", "a@c.d-e", "a@c.DE", "ä@c.de", "a@c.dé",
+            "a@" + "a".repeat(5000), "a@" + "a.".repeat(200) + "a1",
+            "a".repeat(5000) + "@" + "b".repeat(5000) + ".com");
+
+    @Test
+    void agreesWithRegexOnEdgeCases() {
+        for (String email : EDGE_CASES) {
+            assertEquals(reference(email), EmailValidator.isValid(email), () -> "'" + email + "'");
+        }
+    }
+
+    @Test
+    void agreesWithRegexOnRandomAndMutatedStrings() {
+        Random random = new Random(42);
+        for (int i = 0; i < RANDOM_SAMPLES; i++) {
+            String email = i % 2 == 0 ? randomString(random) : mutate(random, "user" + i + "@mail.example.org");
+            assertEquals(reference(email), EmailValidator.isValid(email), () -> "'" + email + "'");
+        }
+    }
+
+    // Больше порога параллельной проверки: индексы должны прийти по возрастанию
+    @Test
+    void validateAllReturnsIndicesOfInvalidEmails() {
+        Random random = new Random(7);
+        List<String> emails = new ArrayList<>(EDGE_CASES);
+        for (int i = 0; i < 50_000; i++) {
+            emails.add(i % 10 == 0 ? mutate(random, "user" + i + "@bench.example.com") : "user" + i + "@bench.example.com");
+        }
+        int[] expected = IntStream.range(0, emails.size())
+                .filter(i -> !reference(emails.get(i)))
+                .toArray();
+        assertArrayEquals(expected, EmailValidator.validateAll(emails));
+    }
+
+    private static boolean reference(String email) {
+        return email != null && !email.trim().isEmpty() && REFERENCE.matcher(email).matches();
+    }
+
+    private static String randomString(Random random) {
+        int length = random.nextInt(24);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return sb.toString();
+    }
+
+    private static String mutate(Random random, String email) {
+        StringBuilder sb = new StringBuilder(email);
+        int edits = 1 + random.nextInt(3);
+        for (int i = 0; i < edits; i++) {
+            int at = random.nextInt(sb.length());
+            char c = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+            switch (random.nextInt(3)) {
+                case 0:
+                    sb.setCharAt(at, c);
+                    break;
+                case 1:
+                    sb.insert(at, c);
+                    break;
+                default:
+                    if (sb.length() > 1) {
+                        sb.deleteCharAt(at);
+                    }
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.dao;
+
+import com.example.entity.User;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Фильтр Блума перед UserDAO не должен терять существующие email, в том числе записанные
+// во время пересборки, и должен держать долю ложных срабатываний около заданной
+class EmailFilterTest {
+
+    private static final int TABLE_SIZE = 20_000;
+    private static final double FPP = 0.01;
+    private static final int ABSENT_SAMPLES = 10_000;
+
+    private static final UserDAO userDao = new UserDAO();
+    private static EmailFilter emailFilter;
+    private static List<User> users;
+
+    @BeforeAll
+    static void startDatabase() throws IOException, InterruptedException {
+        TestDatabase.start(1);
+        users = new ArrayList<>(TABLE_SIZE);
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            users.add(new User("user" + i, "user" + i + "@filter.example.com", 18 + i % 60));
+        }
+        assertTrue(userDao.createUsers(users, 500).getFailures().isEmpty(), "seed rows rejected");
+
+        emailFilter = new EmailFilter(userDao, FPP, 64 << 20, TimeUnit.HOURS.toMillis(1)).start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!emailFilter.isReady() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(emailFilter.isReady(), "filter was not built");
+    }
+
+    @AfterAll
+    static void stopDatabase() throws IOException {
+        if (emailFilter != null) {
+            emailFilter.close();
+        }
+        TestDatabase.stop();
+    }
+
+    @Test
+    void existingEmailsAreNeverFilteredOut() {
+        for (User user : users) {
+            assertTrue(emailFilter.mightContain(user.getEmail()), () -> "existing email filtered out: " + user.getEmail());
+        }
+        for (int i = 0; i < TABLE_SIZE; i += 101) {
+            String email = users.get(i).getEmail();
+            assertEquals(users.get(i).getId(), userDao.getUserByEmail(email).map(User::getId).orElse(null));
+        }
+        List<String> batch = List.of(users.get(1).getEmail(), "absent@filter.example.com", users.get(2).getEmail());
+        assertEquals(2, userDao.getUsersByEmails(batch).size());
+    }
+
+    // Пересборка все время идет заново, пока другой поток пишет: каждый записанный email должен
+    // оказаться и в фильтре, который пересборка в итоге оставила
+    @Test
+    void emailsWrittenDuringRebuildStayVisible() throws InterruptedException {
+        List<String> created = new ArrayList<>();
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 200; i++) {
+                String email = "race" + i + "@filter.example.com";
+                if (userDao.createUser(new User("race" + i, email, 30)).isPresent()) {
+                    created.add(email);
+                }
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            assertTrue(emailFilter.rebuild(), "rebuild failed");
+        }
+        writer.join();
+
+        assertEquals(200, created.size());
+        for (String email : created) {
+            assertTrue(emailFilter.mightContain(email), "email written during rebuild filtered out: " + email);
+            assertTrue(userDao.isEmailTaken(email), "email written during rebuild reported free: " + email);
+        }
+    }
+
+    @Test
+    void falsePositiveRateStaysWithinBudget() {
+        int passed = 0;
+        for (int i = 0; i < ABSENT_SAMPLES; i++) {
+            if (emailFilter.mightContain("absent" + i + "@filter.example.com")) {
+                passed++;
+            }
+        }
+        assertTrue(passed < ABSENT_SAMPLES * FPP * 3, "false positive rate " + (double) passed / ABSENT_SAMPLES);
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.dao;
+
+import com.example.entity.User;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// ReactiveUserRepository и UserDAO на одной базе из двух шардов: обе реализации видят одни и те же
+// строки и одинаково ведут себя на границах
+class ReactiveUserRepositoryTest {
+
+    private static final int SHARDS = 2;
+    private static final int TABLE_SIZE = 2_000;
+
+    private static final UserDAO userDao = new UserDAO();
+    private static ReactiveUserRepository repository;
+
+    @BeforeAll
+    static void startDatabase() throws IOException {
+        TestDatabase.start(SHARDS);
+        List<User> users = new ArrayList<>(TABLE_SIZE);
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            users.add(new User("user" + i, "user" + i + "@reactive.example.com", 18 + i % 60));
+        }
+        assertTrue(userDao.createUsers(users, 500).getFailures().isEmpty(), "seed rows rejected");
+        repository = new ReactiveUserRepository(2);
+    }
+
+    @AfterAll
+    static void stopDatabase() throws IOException {
+        if (repository != null) {
+            repository.close();
+        }
+        TestDatabase.stop();
+    }
+
+    @Test
+    void writesAreVisibleToUserDao() {
+        assertEquals(SHARDS, repository.getShardCount());
+        User created = new User("reactive", "reactive@reactive.example.com", 30);
+        assertTrue(repository.createUser(created).join().isPresent(), "reactive create failed");
+        assertEquals(Optional.of(created.getEmail()), userDao.getUserById(created.getId()).map(User::getEmail));
+        assertEquals(Optional.of(created.getId()), repository.getUserByEmail(created.getEmail()).join().map(User::getId));
+        assertTrue(repository.createUser(new User("dup", created.getEmail(), 1)).join().isEmpty(),
+                "duplicate email accepted");
+
+        assertEquals(UpdateResult.UPDATED,
+                repository.updateUserFields(created.getId(), "renamed", null, null, 0L).join());
+        assertEquals(UpdateResult.VERSION_CONFLICT,
+                repository.updateUserFields(created.getId(), "again", null, null, 0L).join());
+        // Строка уже в кэше второго уровня UserDAO после первого чтения: обновление ее вытесняет
+        assertEquals(Optional.of("renamed"), userDao.getUserById(created.getId()).map(User::getName));
+
+        assertTrue(repository.deleteUser(created.getId()).join(), "delete failed");
+        assertFalse(repository.deleteUser(created.getId()).join(), "second delete succeeded");
+        assertTrue(userDao.getUserById(created.getId()).isEmpty(), "UserDAO still sees the deleted row");
+        assertEquals(TABLE_SIZE, userDao.countUsers());
+    }
+
+    @Test
+    void pagesMatchUserDao() {
+        Long afterId = null;
+        int seen = 0;
+        while (true) {
+            List<Long> reactive = ids(repository.getUsersPage(afterId, 150).join());
+            assertEquals(ids(userDao.getUsersPage(afterId, 150)), reactive, "pages differ after " + afterId);
+            if (reactive.isEmpty()) {
+                break;
+            }
+            seen += reactive.size();
+            afterId = reactive.get(reactive.size() - 1);
+        }
+        assertEquals(TABLE_SIZE, seen);
+
+        CompletableFuture<List<User>> invalid = repository.getUsersPage(null, 0);
+        CompletionException error = assertThrows(CompletionException.class, invalid::join);
+        assertInstanceOf(IllegalArgumentException.class, error.getCause());
+    }
+
+    // Подписчик с ограниченным спросом и порции курсора меньше спроса: все строки по возрастанию id
+    @Test
+    void streamDeliversEveryRowOnDemand() {
+        List<Long> streamed = new ArrayList<>();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        repository.streamAllUsers(100).subscribe(new Flow.Subscriber<User>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(256);
+            }
+
+            @Override
+            public void onNext(User user) {
+                streamed.add(user.getId());
+                if (streamed.size() % 256 == 0) {
+                    subscription.request(256);
+                }
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                done.completeExceptionally(error);
+            }
+
+            @Override
+            public void onComplete() {
+                done.complete(null);
+            }
+        });
+        done.orTimeout(30, TimeUnit.SECONDS).join();
+
+        assertEquals(TABLE_SIZE, streamed.size());
+        for (int i = 1; i < streamed.size(); i++) {
+            assertTrue(streamed.get(i) > streamed.get(i - 1), "stream order broken at " + streamed.get(i));
+        }
+    }
+
+    private static List<Long> ids(List<User> users) {
+        return users.stream().map(User::getId).toList();
+    }
+}
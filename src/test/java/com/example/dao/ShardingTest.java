@@ -0,0 +1,128 @@
+package com.example.dao;
+
+import com.example.entity.User;
+import com.example.util.HibernateUtil;
+import com.example.util.Shards;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Маршрутизация UserDAO по трем шардам (каждый - отдельный embedded PostgreSQL)
+class ShardingTest {
+
+    private static final int SHARDS = 3;
+    private static final int TABLE_SIZE = 3_000;
+
+    private static final UserDAO userDao = new UserDAO();
+    private static List<User> users;
+
+    @BeforeAll
+    static void startDatabase() throws IOException {
+        TestDatabase.start(SHARDS);
+        users = new ArrayList<>(TABLE_SIZE);
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            users.add(new User("user" + i, "user" + i + "@shard.example.com", 18 + i % 60));
+        }
+        assertTrue(userDao.createUsers(users, 500).getFailures().isEmpty(), "seed rows rejected");
+    }
+
+    @AfterAll
+    static void stopDatabase() throws IOException {
+        TestDatabase.stop();
+    }
+
+    @Test
+    void rowsLiveOnHomeShardOfEmail() {
+        assertEquals(SHARDS, Shards.count());
+        for (User user : users) {
+            assertEquals(Shards.shardOfEmail(user.getEmail()), Shards.shardOfId(user.getId()),
+                    () -> "user " + user.getId() + " is not on the home shard of " + user.getEmail());
+        }
+        int stored = 0;
+        for (int shard = 0; shard < SHARDS; shard++) {
+            int current = shard;
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = HibernateUtil.inTransaction(shard, session -> session
+                    .createNativeQuery("SELECT id, email FROM user_table").getResultList());
+            assertTrue(!rows.isEmpty(), "shard " + shard + " is empty");
+            for (Object[] row : rows) {
+                assertEquals(current, Shards.shardOfId(((Number) row[0]).longValue()));
+                assertEquals(current, Shards.shardOfEmail((String) row[1]));
+            }
+            stored += rows.size();
+        }
+        assertEquals(TABLE_SIZE, stored);
+    }
+
+    @Test
+    void readsByIdAndEmailFindRowsOnEveryShard() {
+        for (int i = 0; i < TABLE_SIZE; i += 97) {
+            User user = users.get(i);
+            Optional<User> byId = userDao.getUserById(user.getId());
+            assertTrue(byId.isPresent(), () -> "id " + user.getId() + " not found");
+            assertEquals(user.getEmail(), byId.get().getEmail());
+            assertEquals(user.getId(), userDao.getUserByEmail(user.getEmail()).map(User::getId).orElse(null));
+        }
+    }
+
+    @Test
+    void emailStaysUniqueAcrossShards() {
+        for (int i = 0; i < 10; i++) {
+            String email = users.get(i).getEmail();
+            assertTrue(userDao.createUser(new User("dup", email, 30)).isEmpty(), () -> "duplicate " + email + " accepted");
+        }
+        assertEquals(TABLE_SIZE, userDao.countUsers());
+    }
+
+    @Test
+    void emailCannotMoveToAnotherShard() {
+        User user = users.get(0);
+        int home = Shards.shardOfId(user.getId());
+        String foreign = null;
+        for (int i = 0; foreign == null; i++) {
+            if (Shards.shardOfEmail("moved" + i + "@shard.example.com") != home) {
+                foreign = "moved" + i + "@shard.example.com";
+            }
+        }
+        assertEquals(UpdateResult.FAILED, userDao.updateUserFields(user.getId(), null, foreign, null, null));
+        assertEquals(user.getEmail(), userDao.getUserById(user.getId()).map(User::getEmail).orElse(null));
+        assertTrue(userDao.getUserByEmail(foreign).isEmpty(), "email moved to another shard");
+    }
+
+    @Test
+    void countSumsAllShards() {
+        assertEquals(TABLE_SIZE, userDao.countUsers());
+    }
+
+    // Страницы сводятся из всех шардов: id строго по возрастанию, без пропусков и повторов
+    @Test
+    void keysetPagesMergeShardsInIdOrder() {
+        Set<Long> seen = new HashSet<>();
+        long previous = 0;
+        Long afterId = null;
+        for (List<User> page = userDao.getUsersPage(null, 256); !page.isEmpty();
+             page = userDao.getUsersPage(afterId, 256)) {
+            assertTrue(page.size() <= 256);
+            for (User user : page) {
+                assertTrue(user.getId() > previous, "page order broken at " + user.getId());
+                seen.add(user.getId());
+                previous = user.getId();
+            }
+            afterId = previous;
+        }
+        assertEquals(TABLE_SIZE, seen.size());
+        for (User user : users) {
+            assertTrue(seen.contains(user.getId()), () -> "page walk skipped " + user.getId());
+        }
+    }
+}
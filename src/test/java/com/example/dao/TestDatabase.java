@@ -0,0 +1,61 @@
+package com.example.dao;
+
+import com.example.util.HibernateUtil;
+import com.example.util.SchemaMigrations;
+import com.example.util.Shards;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Embedded PostgreSQL для тестов DAO, как EmbeddedDatabase у бенчмарков: сервер на каждый шард,
+// схема - миграциями, подключение - системными свойствами hibernate.*. Запускать до первого
+// обращения к HibernateUtil
+final class TestDatabase {
+
+    private static final List<EmbeddedPostgres> servers = new ArrayList<>();
+
+    private TestDatabase() {
+    }
+
+    static void start(int shards) throws IOException {
+        List<String> shardUrls = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            EmbeddedPostgres server = EmbeddedPostgres.builder().start();
+            servers.add(server);
+            String url = server.getJdbcUrl("postgres", "postgres") + "&reWriteBatchedInserts=true";
+            SchemaMigrations.migrate(url, "postgres", "postgres", shard);
+            if (shard == 0) {
+                System.setProperty("hibernate.connection.url", url);
+                System.setProperty("hibernate.connection.username", "postgres");
+                System.setProperty("hibernate.connection.password", "postgres");
+            } else {
+                shardUrls.add(url);
+            }
+        }
+        if (!shardUrls.isEmpty()) {
+            System.setProperty(Shards.URLS, String.join(",", shardUrls));
+        }
+    }
+
+    static void stop() throws IOException {
+        HibernateUtil.shutdown();
+        System.clearProperty("hibernate.connection.url");
+        System.clearProperty("hibernate.connection.username");
+        System.clearProperty("hibernate.connection.password");
+        System.clearProperty(Shards.URLS);
+        IOException failure = null;
+        for (EmbeddedPostgres server : servers) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        servers.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.dao;
+
+import com.example.entity.User;
+import com.example.util.HibernateUtil;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// upsertUser/upsertUsers: статус каждой строки, id существующих строк, строки, вставленные
+// параллельно, и кэш второго уровня после native-запроса
+class UpsertTest {
+
+    private static final UserDAO userDao = new UserDAO();
+    private static final AtomicInteger sequence = new AtomicInteger();
+
+    @BeforeAll
+    static void startDatabase() throws IOException {
+        TestDatabase.start(1);
+    }
+
+    @AfterAll
+    static void stopDatabase() throws IOException {
+        TestDatabase.stop();
+    }
+
+    @Test
+    void upsertUserReportsInsertedUnchangedAndUpdated() {
+        User user = newUser();
+        UpsertResult inserted = userDao.upsertUser(user);
+        assertEquals(UpsertResult.Status.INSERTED, inserted.getStatus());
+        User stored = userDao.getUserByEmail(user.getEmail()).orElseThrow();
+        assertEquals(inserted.getId(), stored.getId());
+        assertEquals(0L, stored.getVersion());
+
+        UpsertResult same = userDao.upsertUser(copy(user));
+        assertEquals(UpsertResult.Status.UNCHANGED, same.getStatus());
+        assertEquals(inserted.getId(), same.getId());
+
+        User older = copy(user);
+        older.setAge(user.getAge() + 1);
+        assertEquals(UpsertResult.Status.UNCHANGED, userDao.upsertUser(older, false).getStatus());
+        assertEquals(user.getAge(), userDao.getUserById(inserted.getId()).orElseThrow().getAge());
+
+        UpsertResult updated = userDao.upsertUser(older);
+        assertEquals(UpsertResult.Status.UPDATED, updated.getStatus());
+        assertEquals(inserted.getId(), updated.getId());
+        User reloaded = userDao.getUserById(inserted.getId()).orElseThrow();
+        assertEquals(older.getAge(), reloaded.getAge());
+        assertEquals(1L, reloaded.getVersion());
+    }
+
+    // Прежний путь синхронизации (createUser, на нарушении уникальности - поиск по email) и upsert
+    // должны сходиться на одной строке
+    @Test
+    void upsertAndCreateThenCatchAgreeOnExistingId() {
+        User user = newUser();
+        Long created = userDao.createUser(user).orElseThrow();
+
+        assertTrue(userDao.createUser(copy(user)).isEmpty(), "duplicate email accepted");
+        assertEquals(created, userDao.getUserByEmail(user.getEmail()).map(User::getId).orElse(null));
+        assertEquals(created, userDao.upsertUser(copy(user)).getId());
+    }
+
+    @Test
+    void upsertUsersReportsEachRowInInputOrder() {
+        User unchanged = newUser();
+        User changed = newUser();
+        userDao.createUser(unchanged).orElseThrow();
+        userDao.createUser(changed).orElseThrow();
+
+        User renamed = copy(changed);
+        renamed.setName("renamed");
+        User fresh = newUser();
+        User invalid = new User("invalid", "not an email", 30);
+        User nameless = new User("", "nameless" + sequence.incrementAndGet() + "@upsert.example.com", 30);
+        User repeated = copy(fresh);
+        List<UpsertResult> results = userDao.upsertUsers(
+                List.of(copy(unchanged), renamed, fresh, invalid, nameless, repeated));
+
+        assertEquals(6, results.size());
+        assertEquals(UpsertResult.Status.UNCHANGED, results.get(0).getStatus());
+        assertEquals(unchanged.getId(), results.get(0).getId());
+        assertEquals(UpsertResult.Status.UPDATED, results.get(1).getStatus());
+        assertEquals(changed.getId(), results.get(1).getId());
+        assertEquals(UpsertResult.Status.INSERTED, results.get(2).getStatus());
+        assertEquals(userDao.getUserByEmail(fresh.getEmail()).map(User::getId).orElse(null), results.get(2).getId());
+        for (int i = 3; i < 6; i++) {
+            assertEquals(UpsertResult.Status.FAILED, results.get(i).getStatus(), "row " + i);
+            assertNull(results.get(i).getId(), "row " + i);
+        }
+        assertEquals("duplicate email", results.get(5).getReason());
+        assertEquals("renamed", userDao.getUserById(changed.getId()).orElseThrow().getName());
+    }
+
+    // Строка с тем же email вставлена и закоммичена другой транзакцией, пока upsert ждал ее блокировку:
+    // ON CONFLICT ее видит, а SELECT того же запроса (снимок до ожидания) - нет. updateExisting = true
+    // с теми же данными и updateExisting = false не возвращают ее из INSERT, id дочитывается отдельно
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void rowInsertedConcurrentlyIsReportedUnchanged(boolean updateExisting) throws Exception {
+        User user = newUser();
+        try (Connection connection = DriverManager.getConnection(
+                System.getProperty("hibernate.connection.url"), "postgres", "postgres")) {
+            connection.setAutoCommit(false);
+            long id;
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO user_table (id, name, email, age, created_at, version)"
+                            + " VALUES (nextval('user_table_seq'), ?, ?, ?, now(), 0) RETURNING id")) {
+                insert.setString(1, user.getName());
+                insert.setString(2, user.getEmail());
+                insert.setInt(3, user.getAge());
+                try (ResultSet rs = insert.executeQuery()) {
+                    rs.next();
+                    id = rs.getLong(1);
+                }
+            }
+
+            CompletableFuture<UpsertResult> upsert = CompletableFuture.supplyAsync(
+                    () -> userDao.upsertUser(copy(user), updateExisting));
+            awaitLockWait();
+            assertFalse(upsert.isDone(), "upsert did not wait for the concurrent insert");
+            connection.commit();
+
+            UpsertResult result = upsert.get(30, TimeUnit.SECONDS);
+            assertEquals(UpsertResult.Status.UNCHANGED, result.getStatus());
+            assertEquals(id, result.getId());
+        }
+    }
+
+    @Test
+    void upsertUserEvictsUpdatedRowFromCache() {
+        User user = newUser();
+        Long id = userDao.createUser(user).orElseThrow();
+        userDao.getUserById(id).orElseThrow();
+        assertTrue(cached(id), "row was not cached");
+
+        User renamed = copy(user);
+        renamed.setName("renamed");
+        assertEquals(UpsertResult.Status.UPDATED, userDao.upsertUser(renamed).getStatus());
+        assertFalse(cached(id), "stale row left in cache");
+        assertEquals("renamed", userDao.getUserById(id).orElseThrow().getName());
+    }
+
+    @Test
+    void upsertUsersEvictsUpdatedRowsFromCache() {
+        List<User> users = new ArrayList<>();
+        List<User> renamed = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            User user = newUser();
+            userDao.createUser(user).orElseThrow();
+            userDao.getUserById(user.getId()).orElseThrow();
+            assertTrue(cached(user.getId()), "row was not cached");
+            users.add(user);
+            User copy = copy(user);
+            copy.setName("renamed" + i);
+            renamed.add(copy);
+        }
+
+        for (UpsertResult result : userDao.upsertUsers(renamed)) {
+            assertEquals(UpsertResult.Status.UPDATED, result.getStatus());
+        }
+        for (int i = 0; i < users.size(); i++) {
+            Long id = users.get(i).getId();
+            assertFalse(cached(id), "stale row left in cache");
+            assertEquals("renamed" + i, userDao.getUserById(id).orElseThrow().getName());
+        }
+    }
+
+    private static User newUser() {
+        int n = sequence.incrementAndGet();
+        return new User("user" + n, "user" + n + "@upsert.example.com", 30);
+    }
+
+    // Новый объект, как у задачи синхронизации: данные пришли извне, id неизвестен
+    private static User copy(User user) {
+        return new User(user.getName(), user.getEmail(), user.getAge());
+    }
+
+    private static boolean cached(Long id) {
+        return HibernateUtil.getSessionFactory().getCache().containsEntity(User.class, id);
+    }
+
+    // Ждет, пока какой-нибудь запрос встанет на блокировку чужой транзакции
+    private static void awaitLockWait() throws SQLException, InterruptedException {
+        try (Connection connection = DriverManager.getConnection(
+                System.getProperty("hibernate.connection.url"), "postgres", "postgres");
+             Statement statement = connection.createStatement()) {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (System.nanoTime() < deadline) {
+                try (ResultSet rs = statement.executeQuery(
+                        "SELECT count(*) FROM pg_locks WHERE NOT granted AND locktype = 'transactionid'")) {
+                    rs.next();
+                    if (rs.getLong(1) > 0) {
+                        return;
+                    }
+                }
+                Thread.sleep(10);
+            }
+        }
+        throw new AssertionError("upsert never waited for the concurrent insert");
+    }
+}
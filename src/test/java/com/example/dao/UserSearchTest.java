@@ -0,0 +1,150 @@
+package com.example.dao;
+
+import com.example.entity.User;
+import com.example.util.HibernateUtil;
+import com.example.util.SchemaMigrations;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.hibernate.Session;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Планы searchUsers на индексах миграции V3. Статистика берется из pg_stat_xact_user_tables в той же
+// транзакции: ни один вид поиска не должен читать user_table последовательным сканированием, а также
+// обходить целиком другой индекс (например первичный ключ с фильтром) - это ловит бюджет прочитанных строк
+class UserSearchTest {
+
+    private static final String[] NAMES = {
+            "Anna", "Boris", "Viktor", "Galina", "Dmitry", "Elena", "Zhanna", "Igor", "Kirill", "Larisa",
+            "Maxim", "Nina", "Oleg", "Polina", "Roman", "Svetlana", "Timur", "Ulyana", "Fedor", "Yulia"};
+
+    private static final int TABLE_SIZE = 100_000;
+    // Больше, чем prepareThreshold pgjdbc и пять custom-планов PostgreSQL: проверяется и generic-план
+    private static final int PLAN_CACHE_RUNS = 12;
+    // Строк user_table на один поиск (seq_tup_read + idx_tup_fetch), полный обход - это все TABLE_SIZE
+    private static final long ROW_BUDGET = 2_000;
+
+    private static final Set<String> CONNECTION_PROPERTIES = Set.of(
+            "hibernate.connection.url", "hibernate.connection.username", "hibernate.connection.password");
+
+    private static EmbeddedPostgres postgres;
+    private static Map<String, UserSearchCriteria> searches;
+    private static final UserDAO userDao = new UserDAO();
+
+    @BeforeAll
+    static void startDatabase() throws IOException {
+        postgres = EmbeddedPostgres.builder().start();
+        String url = postgres.getJdbcUrl("postgres", "postgres") + "&reWriteBatchedInserts=true";
+        SchemaMigrations.migrate(url, "postgres", "postgres");
+        System.setProperty("hibernate.connection.url", url);
+        System.setProperty("hibernate.connection.username", "postgres");
+        System.setProperty("hibernate.connection.password", "postgres");
+
+        Random random = new Random(11);
+        List<User> users = new ArrayList<>(TABLE_SIZE);
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            users.add(new User(NAMES[random.nextInt(NAMES.length)] + i,
+                    "User" + i + "@Search.Example.com", 18 + random.nextInt(60)));
+        }
+        assertTrue(userDao.createUsers(users, 500).getFailures().isEmpty(), "seed rows rejected");
+        // created_at выставляет @PrePersist, разносим регистрации по последнему году
+        HibernateUtil.runInTransaction(session -> session.createNativeQuery(
+                "UPDATE user_table SET created_at = now() - (id % 365) * interval '1 day' - (id % 1440) * interval '1 minute'")
+                .executeUpdate());
+        HibernateUtil.runInTransaction(session -> session.createNativeQuery("ANALYZE user_table").executeUpdate());
+        searches = searches(LocalDateTime.now());
+    }
+
+    @AfterAll
+    static void stopDatabase() throws IOException {
+        HibernateUtil.shutdown();
+        CONNECTION_PROPERTIES.forEach(System::clearProperty);
+        if (postgres != null) {
+            postgres.close();
+        }
+    }
+
+    static List<String> searchNames() {
+        return List.of("namePrefix", "emailIgnoreCase", "ageRange", "createdLastDays", "newestFirst", "combined");
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("searchNames")
+    void searchUsesIndexes(String name) {
+        UserSearchCriteria criteria = searches.get(name);
+        long[] read = HibernateUtil.inTransaction(session -> {
+            long[] before = tableReads(session);
+            for (int i = 0; i < PLAN_CACHE_RUNS; i++) {
+                userDao.searchUsers(criteria);
+            }
+            long[] after = tableReads(session);
+            return new long[]{after[0] - before[0], after[1] - before[1]};
+        });
+        assertEquals(0, read[0], "sequential scans of user_table in " + PLAN_CACHE_RUNS + " runs");
+        assertTrue(read[1] / PLAN_CACHE_RUNS <= ROW_BUDGET,
+                "read " + read[1] / PLAN_CACHE_RUNS + " rows of user_table per run, budget is " + ROW_BUDGET);
+    }
+
+    private static Map<String, UserSearchCriteria> searches(LocalDateTime now) {
+        Map<String, UserSearchCriteria> searches = new LinkedHashMap<>();
+
+        UserSearchCriteria namePrefix = new UserSearchCriteria();
+        namePrefix.setNamePrefix("Oleg12");
+        namePrefix.setSortBy(UserSearchCriteria.SortField.NAME);
+        searches.put("namePrefix", namePrefix);
+
+        UserSearchCriteria email = new UserSearchCriteria();
+        email.setEmail("USER4242@search.EXAMPLE.com");
+        searches.put("emailIgnoreCase", email);
+
+        UserSearchCriteria ageRange = new UserSearchCriteria();
+        ageRange.setMinAge(30);
+        ageRange.setMaxAge(31);
+        ageRange.setSortBy(UserSearchCriteria.SortField.AGE);
+        ageRange.setOffset(200);
+        searches.put("ageRange", ageRange);
+
+        UserSearchCriteria lastDays = new UserSearchCriteria();
+        lastDays.setCreatedFrom(now.minusDays(2));
+        lastDays.setCreatedTo(now);
+        lastDays.setSortBy(UserSearchCriteria.SortField.CREATED_AT);
+        searches.put("createdLastDays", lastDays);
+
+        UserSearchCriteria newest = new UserSearchCriteria();
+        newest.setSortBy(UserSearchCriteria.SortField.CREATED_AT);
+        newest.setDescending(true);
+        searches.put("newestFirst", newest);
+
+        UserSearchCriteria combined = new UserSearchCriteria();
+        combined.setNamePrefix("Anna1");
+        combined.setMinAge(25);
+        combined.setMaxAge(40);
+        combined.setCreatedFrom(now.minusDays(30));
+        combined.setSortBy(UserSearchCriteria.SortField.CREATED_AT);
+        combined.setDescending(true);
+        searches.put("combined", combined);
+        return searches;
+    }
+
+    // {seq_scan, прочитано строк} по статистике текущей, еще не завершенной транзакции
+    private static long[] tableReads(Session session) {
+        Object[] row = (Object[]) session.createNativeQuery(
+                "SELECT seq_scan, seq_tup_read + COALESCE(idx_tup_fetch, 0) "
+                        + "FROM pg_stat_xact_user_tables WHERE relname = 'user_table'")
+                .getSingleResult();
+        return new long[]{((Number) row[0]).longValue(), ((Number) row[1]).longValue()};
+    }
+}
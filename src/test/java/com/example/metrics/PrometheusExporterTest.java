@@ -0,0 +1,45 @@
+package com.example.metrics;
+
+import com.example.util.BloomFilter;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Формат 0.0.4 допускает одну строку TYPE (и HELP) на метрику: с несколькими фильтрами
+// Prometheus иначе отвергает весь ответ
+class PrometheusExporterTest {
+
+    @Test
+    void everyMetricIsDeclaredOnce() {
+        for (String name : new String[]{"exporter-test-a", "exporter-test-b"}) {
+            FilterMetrics filter = DaoMetrics.filter(name);
+            BloomFilter bloom = BloomFilter.create(1_000, 0.01, 1 << 20);
+            bloom.put("user@example.com");
+            filter.recordRebuild(bloom);
+            filter.recordCheck(false);
+        }
+
+        String text = PrometheusExporter.render();
+        Map<String, Integer> types = new HashMap<>();
+        Map<String, Integer> helps = new HashMap<>();
+        for (String line : text.split("\n")) {
+            if (line.startsWith("# TYPE ")) {
+                types.merge(line.split(" ")[2], 1, Integer::sum);
+            } else if (line.startsWith("# HELP ")) {
+                helps.merge(line.split(" ")[2], 1, Integer::sum);
+            }
+        }
+        types.forEach((name, count) -> assertEquals(1, count, "# TYPE lines for " + name));
+        helps.forEach((name, count) -> assertEquals(1, count, "# HELP lines for " + name));
+
+        assertTrue(types.containsKey("bloom_filter_checks_total"));
+        for (String name : new String[]{"exporter-test-a", "exporter-test-b"}) {
+            assertTrue(text.contains("bloom_filter_checks_total{filter=\"" + name + "\"} 1\n"), text);
+            assertTrue(text.contains("bloom_filter_size_bytes{filter=\"" + name + "\"} "), text);
+        }
+    }
+}
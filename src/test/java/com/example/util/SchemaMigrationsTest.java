@@ -0,0 +1,93 @@
+package com.example.util;
+
+import com.example.dao.UserDAO;
+import com.example.entity.User;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Обновление БД, которую создал исходный сервис (hbm2ddl.auto=update, GenerationType.IDENTITY):
+// без user_table_seq и колонки version, id генерирует сама таблица
+class SchemaMigrationsTest {
+
+    private static EmbeddedPostgres postgres;
+
+    @BeforeAll
+    static void startDatabase() throws IOException {
+        postgres = EmbeddedPostgres.builder().start();
+    }
+
+    @AfterAll
+    static void stopDatabase() throws IOException {
+        postgres.close();
+    }
+
+    @AfterEach
+    void shutdownHibernate() {
+        HibernateUtil.shutdown();
+        System.clearProperty("hibernate.connection.url");
+        System.clearProperty("hibernate.connection.username");
+        System.clearProperty("hibernate.connection.password");
+    }
+
+    // Так объявлял id Hibernate 5 для PostgreSQL10Dialect и для диалектов до него
+    @ParameterizedTest
+    @ValueSource(strings = {"int8 generated by default as identity", "bigserial not null"})
+    void upgradesSchemaCreatedByHbm2ddl(String idColumn) throws SQLException {
+        String database = idColumn.startsWith("bigserial") ? "baseline_serial" : "baseline_identity";
+        try (Connection connection = postgres.getPostgresDatabase().getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE DATABASE " + database);
+        }
+        String url = postgres.getJdbcUrl("postgres", database);
+        try (Connection connection = postgres.getDatabase("postgres", database).getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("create table user_table (id " + idColumn + ", age int4, created_at timestamp not null, "
+                    + "email varchar(150) not null, name varchar(100) not null, primary key (id))");
+            statement.execute("alter table user_table add constraint UK_eamk4l51hm6yqb8xw37i23kb5 unique (email)");
+            for (int i = 0; i < 3; i++) {
+                statement.execute("insert into user_table (age, created_at, email, name) "
+                        + "values (30, now(), 'old" + i + "@example.com', 'old" + i + "')");
+            }
+        }
+
+        assertEquals(4, SchemaMigrations.migrate(url, "postgres", "postgres"));
+
+        // hbm2ddl.auto=validate: без sequence или version SessionFactory не собралась бы
+        System.setProperty("hibernate.connection.url", url);
+        System.setProperty("hibernate.connection.username", "postgres");
+        System.setProperty("hibernate.connection.password", "postgres");
+        UserDAO userDao = new UserDAO();
+        Optional<User> old = userDao.getUserByEmail("old2@example.com");
+        assertTrue(old.isPresent(), "existing row lost");
+        assertEquals(0L, old.get().getVersion());
+
+        User created = new User("new", "new@example.com", 20);
+        assertTrue(userDao.createUser(created).isPresent(), "insert after upgrade failed");
+        assertTrue(created.getId() > old.get().getId(), "sequence was not moved past existing ids");
+        assertEquals(4, userDao.countUsers());
+
+        // Повторный запуск ничего не делает
+        assertEquals(0, SchemaMigrations.migrate(url, "postgres", "postgres"));
+        try (Connection connection = postgres.getDatabase("postgres", database).getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet baseline = statement.executeQuery(
+                     "SELECT version FROM flyway_schema_history WHERE type = 'BASELINE'")) {
+            assertTrue(baseline.next(), "existing schema was not baselined");
+            assertEquals("0", baseline.getString(1));
+        }
+    }
+}